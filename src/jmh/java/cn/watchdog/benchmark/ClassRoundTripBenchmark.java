@@ -0,0 +1,65 @@
+package cn.watchdog.benchmark;
+
+import cn.watchdog.lib.asm.ClassReader;
+import cn.watchdog.lib.asm.ClassWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ClassReader} to {@link ClassWriter} round trips, the inner loop of
+ * dependency relocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassRoundTripBenchmark {
+	private byte[] classFile;
+
+	@Setup
+	public void setup() throws IOException {
+		// one of the larger classes in the tree
+		try (InputStream in = ClassReader.class.getResourceAsStream("MethodWriter.class")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			this.classFile = out.toByteArray();
+		}
+	}
+
+	@Benchmark
+	public byte[] copyConstantPool() {
+		// the reader is passed to the writer, which lets unchanged methods be copied as-is
+		ClassReader reader = new ClassReader(this.classFile);
+		ClassWriter writer = new ClassWriter(reader, 0);
+		reader.accept(writer, 0);
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] fullRewrite() {
+		ClassReader reader = new ClassReader(this.classFile);
+		ClassWriter writer = new ClassWriter(0);
+		reader.accept(writer, 0);
+		return writer.toByteArray();
+	}
+
+}
@@ -0,0 +1,51 @@
+package cn.watchdog.benchmark;
+
+import cn.watchdog.dependencies.Dependency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checksum verification of a downloaded dependency, as done by
+ * {@link cn.watchdog.dependencies.DependencyRepository}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DependencyChecksumBenchmark {
+
+	/**
+	 * Size of the simulated jar, in KiB.
+	 */
+	@Param({"64", "1024", "4096"})
+	public int sizeKib;
+
+	private byte[] jar;
+
+	@Setup
+	public void setup() {
+		this.jar = new byte[this.sizeKib * 1024];
+		new Random(42).nextBytes(this.jar);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		byte[] hash = Dependency.createDigest().digest(this.jar);
+		return Dependency.HIKARI.checksumMatches(hash);
+	}
+
+}
@@ -0,0 +1,66 @@
+package cn.watchdog.benchmark;
+
+import cn.watchdog.lib.jarrelocator.JarRelocator;
+import cn.watchdog.lib.jarrelocator.Relocation;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Relocation of a real jar (gson, which is on the benchmark classpath) with
+ * the same kind of rules the dependency manager applies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class JarRelocatorBenchmark {
+	private File input;
+	private Path outputDirectory;
+	private List<Relocation> relocations;
+
+	@Setup
+	public void setup() throws Exception {
+		this.input = Paths.get(com.google.gson.Gson.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toFile();
+		this.outputDirectory = Files.createTempDirectory("troneconomy-jmh");
+		this.relocations = ImmutableList.of(new Relocation("com.google.gson", "cn.watchdog.lib.gson"));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(this.outputDirectory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(this.outputDirectory);
+	}
+
+	@Benchmark
+	public File relocate() throws IOException {
+		File output = Files.createTempFile(this.outputDirectory, "relocated", ".jar").toFile();
+		new JarRelocator(this.input, output, this.relocations).run();
+		return output;
+	}
+
+}
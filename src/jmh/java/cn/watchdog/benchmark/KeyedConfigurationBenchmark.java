@@ -0,0 +1,152 @@
+package cn.watchdog.benchmark;
+
+import cn.watchdog.config.generic.KeyedConfiguration;
+import cn.watchdog.config.generic.adapter.ConfigurationAdapter;
+import cn.watchdog.config.generic.key.ConfigKey;
+import cn.watchdog.config.generic.key.ConfigKeyFactory;
+import cn.watchdog.troneconomy.TronEconomy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of configuration values through {@link KeyedConfiguration#get(ConfigKey)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyedConfigurationBenchmark {
+	private Configuration configuration;
+
+	@Setup
+	public void setup() {
+		this.configuration = new Configuration(new DefaultsAdapter());
+	}
+
+	@Benchmark
+	public Boolean getBoolean() {
+		return this.configuration.get(Keys.ENABLED);
+	}
+
+	@Benchmark
+	public String getString() {
+		return this.configuration.get(Keys.CURRENCY);
+	}
+
+	@Benchmark
+	public Map<String, String> getMap() {
+		return this.configuration.get(Keys.PROPERTIES);
+	}
+
+	public static final class Keys {
+		public static final ConfigKey<Boolean> ENABLED = ConfigKeyFactory.booleanKey("enabled", true);
+		public static final ConfigKey<String> CURRENCY = ConfigKeyFactory.lowercaseStringKey("currency", "Default");
+		public static final ConfigKey<Map<String, String>> PROPERTIES = ConfigKeyFactory.mapKey("properties");
+
+		private Keys() {
+		}
+	}
+
+	private static final class Configuration extends KeyedConfiguration {
+		Configuration(ConfigurationAdapter adapter) {
+			super(adapter, KeyedConfiguration.initialise(Keys.class));
+			init();
+		}
+	}
+
+	/**
+	 * An adapter which returns the default for every path.
+	 */
+	private static final class DefaultsAdapter implements ConfigurationAdapter {
+		@Override
+		public TronEconomy getPlugin() {
+			return null;
+		}
+
+		@Override
+		public void reload() {
+		}
+
+		@Override
+		public String getString(String path, String def) {
+			return def;
+		}
+
+		@Override
+		public int getInteger(String path, int def) {
+			return def;
+		}
+
+		@Override
+		public float getFloat(String path, float def) {
+			return def;
+		}
+
+		@Override
+		public double getDouble(String path, double def) {
+			return def;
+		}
+
+		@Override
+		public boolean getBoolean(String path, boolean def) {
+			return def;
+		}
+
+		@Override
+		public List<String> getStringList(String path, List<String> def) {
+			return def;
+		}
+
+		@Override
+		public Map<String, String> getStringMap(String path, Map<String, String> def) {
+			return def;
+		}
+
+		@Override
+		public Map<String, Boolean> getBooleanMap(String path, Map<String, Boolean> def) {
+			return def;
+		}
+
+		@Override
+		public Map<String, Integer> getIntegerMap(String path, Map<String, Integer> def) {
+			return def;
+		}
+
+		@Override
+		public Map<String, Double> getDoubleMap(String path, Map<String, Double> def) {
+			return def;
+		}
+
+		@Override
+		public Set<String> getKeys(String path, Set<String> def) {
+			return def;
+		}
+
+		@Override
+		public Collection<String> getKeys() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public void set(String path, Object value) {
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package cn.watchdog.benchmark;
+
+import cn.watchdog.troneconomy.ledger.Ledger;
+import cn.watchdog.troneconomy.transaction.TransactionDeduplicator;
+import cn.watchdog.troneconomy.transaction.TransactionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ledger mutations from several threads, both spread over many accounts and
+ * concentrated on a single hot account.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class LedgerBenchmark {
+	private static final UUID BANK = new UUID(0, 1);
+	private static final long INITIAL_BALANCE = 1L << 40;
+
+	@Param({"false", "true"})
+	public boolean striped;
+
+	private ForkJoinPool pool;
+	private Ledger ledger;
+	private UUID[] players;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		this.ledger = new Ledger(this.pool, new TransactionDeduplicator(1, TimeUnit.MINUTES, 1 << 22),
+				this.striped ? Collections.singleton(BANK) : Collections.emptySet());
+		this.players = new UUID[10_000];
+		for (int i = 0; i < this.players.length; i++) {
+			this.players[i] = new UUID(1, i);
+			// enough that no transfer is refused for insufficient funds
+			this.ledger.loadAccount(this.players[i], INITIAL_BALANCE).join();
+		}
+		this.ledger.loadAccount(BANK, 0L).join();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.pool.shutdown();
+	}
+
+	private static UUID transactionId() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return new UUID(random.nextLong(), random.nextLong());
+	}
+
+	@Benchmark
+	public TransactionResult depositSpread() {
+		UUID player = this.players[ThreadLocalRandom.current().nextInt(this.players.length)];
+		return this.ledger.deposit(transactionId(), player, 10).join();
+	}
+
+	@Benchmark
+	public TransactionResult depositHotAccount() {
+		return this.ledger.deposit(transactionId(), BANK, 10).join();
+	}
+
+	@Benchmark
+	public TransactionResult transferSpread() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		UUID from = this.players[random.nextInt(this.players.length)];
+		UUID to = this.players[random.nextInt(this.players.length)];
+		if (from.equals(to)) {
+			return TransactionResult.SUCCESS;
+		}
+		return this.ledger.transfer(transactionId(), from, to, 1).join();
+	}
+
+}
@@ -0,0 +1,85 @@
+package cn.watchdog.benchmark;
+
+import cn.watchdog.scheduler.ExecutorTaskTimer;
+import cn.watchdog.scheduler.HashedTimingWheel;
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.scheduler.TaskTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules and cancels short lived timers against a backlog of pending
+ * ones, comparing the timing wheel with the scheduled executor it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TaskTimerBenchmark {
+	private static final Runnable NOOP = () -> {
+	};
+
+	@Param({"wheel", "executor"})
+	public String timer;
+
+	@Param({"0", "50000"})
+	public int backlog;
+
+	private TaskTimer taskTimer;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		if (this.timer.equals("wheel")) {
+			this.taskTimer = new HashedTimingWheel("benchmark-timer", 10, TimeUnit.MILLISECONDS, 512);
+		} else {
+			this.taskTimer = new ExecutorTaskTimer("benchmark-timer");
+		}
+		// long lived timers which stay pending for the whole run
+		for (int i = 0; i < this.backlog; i++) {
+			this.taskTimer.schedule(NOOP, 1, TimeUnit.HOURS);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		this.taskTimer.shutdown();
+		this.taskTimer.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * A cooldown or hold which is almost always cancelled before it fires.
+	 */
+	@Benchmark
+	public void scheduleAndCancel() {
+		long delay = ThreadLocalRandom.current().nextLong(1_000, 30_000);
+		SchedulerTask task = this.taskTimer.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+		task.cancel();
+	}
+
+	/**
+	 * A short timer which is left to fire.
+	 */
+	@Benchmark
+	public SchedulerTask scheduleAndExpire() {
+		long delay = ThreadLocalRandom.current().nextLong(1, 50);
+		return this.taskTimer.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * JMH基准测试的包。
+ */
+package cn.watchdog.benchmark;
@@ -2,16 +2,26 @@ package cn.watchdog;
 
 import cn.watchdog.scheduler.AbstractJavaScheduler;
 import cn.watchdog.scheduler.SchedulerAdapter;
+import cn.watchdog.scheduler.TickBudgetExecutor;
 import cn.watchdog.troneconomy.TronEconomy;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class BukkitSchedulerAdapter extends AbstractJavaScheduler implements SchedulerAdapter {
-	private final Executor sync;
+	/**
+	 * The default time the main thread may spend on sync tasks per tick.
+	 */
+	private static final long SYNC_BUDGET_MICROS = 2000;
+
+	private final TronEconomy bootstrap;
+	private final TickBudgetExecutor sync;
+	private int syncTaskId = -1;
 
 	public BukkitSchedulerAdapter(TronEconomy bootstrap) {
 		super(bootstrap);
-		this.sync = r -> bootstrap.getServer().getScheduler().scheduleSyncDelayedTask(bootstrap, r);
+		this.bootstrap = bootstrap;
+		this.sync = new TickBudgetExecutor(SYNC_BUDGET_MICROS, TimeUnit.MICROSECONDS);
 	}
 
 	@Override
@@ -19,4 +29,37 @@ public class BukkitSchedulerAdapter extends AbstractJavaScheduler implements Sch
 		return this.sync;
 	}
 
+	/**
+	 * Starts draining the sync executor once per tick. Tasks submitted
+	 * before this are run on the first tick.
+	 */
+	public void startSync() {
+		if (this.syncTaskId == -1) {
+			this.syncTaskId = this.bootstrap.getServer().getScheduler()
+					.scheduleSyncRepeatingTask(this.bootstrap, this.sync::drain, 0L, 1L);
+		}
+	}
+
+	/**
+	 * Stops the per tick drain and runs any remaining sync tasks. Must be
+	 * called on the main thread.
+	 */
+	public void shutdownSync() {
+		if (this.syncTaskId != -1) {
+			this.bootstrap.getServer().getScheduler().cancelTask(this.syncTaskId);
+			this.syncTaskId = -1;
+		}
+		this.sync.drainAll();
+	}
+
+	/**
+	 * Sets the time the main thread may spend on sync tasks per tick.
+	 *
+	 * @param budget the budget
+	 * @param unit   the unit of budget
+	 */
+	public void setSyncBudget(long budget, TimeUnit unit) {
+		this.sync.setBudget(budget, unit);
+	}
+
 }
@@ -64,7 +64,7 @@ public class DependencyManagerImpl implements DependencyManager {
 		this.registry = new DependencyRegistry();
 		this.cacheDirectory = setupCacheDirectory(plugin);
 		this.classPathAppender = plugin.getClassPathAppender();
-		this.loadingExecutor = plugin.getScheduler().async();
+		this.loadingExecutor = plugin.getScheduler().io();
 	}
 
 	private static Path setupCacheDirectory(TronEconomy plugin) {
@@ -3,60 +3,193 @@ package cn.watchdog.scheduler;
 import cn.watchdog.troneconomy.TronEconomy;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinWorkerThread;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
- * Abstract implementation of {@link SchedulerAdapter} using a {@link java.util.concurrent.ScheduledExecutorService}.
+ * Abstract implementation of {@link SchedulerAdapter} using a {@link TaskTimer}
+ * for delayed tasks.
+ *
+ * <p>By default delayed and repeating tasks are fired by a
+ * {@link HashedTimingWheel}, so scheduling and cancelling stay cheap with
+ * many thousands of pending timers. Subclasses needing finer timing can
+ * pass an {@link ExecutorTaskTimer} instead.</p>
+ *
+ * <p>CPU bound work runs on a {@link ForkJoinPool} sized to the available
+ * cores. Blocking work (JDBC, HTTP) runs on a separate bounded pool which
+ * grows on demand, so it cannot starve the work-stealing pool.</p>
  */
 public abstract class AbstractJavaScheduler implements SchedulerAdapter {
-	private static final int PARALLELISM = 16;
+	private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	private static final int IO_THREADS = Math.max(16, PARALLELISM * 2);
+	private static final int IO_QUEUE_CAPACITY = 10_000;
+	private static final long DEFAULT_SLOW_TASK_MILLIS = 500;
+	private static final long TIMER_TICK_MILLIS = 10;
+	private static final int TIMER_WHEEL_SIZE = 512;
+	private static final String TIMER_THREAD_NAME = "floracore-scheduler";
 
 	private final TronEconomy bootstrap;
 
-	private final ScheduledThreadPoolExecutor scheduler;
+	private final TaskTimer scheduler;
 	private final ForkJoinPool worker;
+	private final ThreadPoolExecutor io;
+	private final LongAdder ioRejected = new LongAdder();
+	/**
+	 * A virtual thread per task executor, only present on Java 21 or newer.
+	 */
+	private final ExecutorService virtual;
+
+	// instrumented views of the executors above, handed out to callers
+	private final InstrumentedExecutor instrumentedWorker;
+	private final InstrumentedExecutor instrumentedIo;
+	private final InstrumentedExecutor instrumentedVirtual;
+	private volatile long slowTaskNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_TASK_MILLIS);
 
 	public AbstractJavaScheduler(TronEconomy bootstrap) {
+		this(bootstrap, new HashedTimingWheel(TIMER_THREAD_NAME, TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS,
+				TIMER_WHEEL_SIZE));
+	}
+
+	protected AbstractJavaScheduler(TronEconomy bootstrap, TaskTimer scheduler) {
 		this.bootstrap = bootstrap;
 
-		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
-			Thread thread = Executors.defaultThreadFactory().newThread(r);
-			thread.setName("floracore-scheduler");
-			return thread;
-		});
-		this.scheduler.setRemoveOnCancelPolicy(true);
-		this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.scheduler = scheduler;
 		this.worker = new ForkJoinPool(PARALLELISM, new WorkerThreadFactory(), new ExceptionHandler(), false);
+
+		AtomicInteger ioCount = new AtomicInteger(0);
+		this.io = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(IO_QUEUE_CAPACITY),
+				r -> {
+					Thread thread = Executors.defaultThreadFactory().newThread(r);
+					thread.setDaemon(true);
+					thread.setName("floracore-io-" + ioCount.getAndIncrement());
+					thread.setUncaughtExceptionHandler(new ExceptionHandler());
+					return thread;
+				},
+				(r, executor) -> {
+					this.ioRejected.increment();
+					throw new RejectedExecutionException("I/O queue is full (" + IO_QUEUE_CAPACITY + " tasks)");
+				});
+		// threads are only created when needed, and time out when idle
+		this.io.allowCoreThreadTimeOut(true);
+
+		this.virtual = createVirtualThreadExecutor();
+
+		this.instrumentedWorker = new InstrumentedExecutor("worker", this.worker);
+		this.instrumentedIo = new InstrumentedExecutor("io", this.io);
+		this.instrumentedVirtual = this.virtual == null ? null : new InstrumentedExecutor("virtual", this.virtual);
+
+		// look for stuck tasks while they are still running
+		this.scheduler.scheduleAtFixedRate(this::checkSlowTasks, 1, 1, TimeUnit.SECONDS);
+	}
+
+	private static ExecutorService createVirtualThreadExecutor() {
+		// the build targets Java 8, so look the factory up reflectively
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
 	}
 
 	@Override
 	public Executor async() {
-		return this.worker;
+		return this.instrumentedWorker;
+	}
+
+	@Override
+	public Executor io() {
+		return this.instrumentedIo;
+	}
+
+	@Override
+	public Executor virtual() {
+		return this.instrumentedVirtual != null ? this.instrumentedVirtual : this.instrumentedIo;
+	}
+
+	/**
+	 * Gets the instrumented executors, for diagnostics.
+	 *
+	 * @return the executors
+	 */
+	public List<InstrumentedExecutor> getInstrumentedExecutors() {
+		List<InstrumentedExecutor> executors = new ArrayList<>(3);
+		executors.add(this.instrumentedWorker);
+		executors.add(this.instrumentedIo);
+		if (this.instrumentedVirtual != null) {
+			executors.add(this.instrumentedVirtual);
+		}
+		return executors;
+	}
+
+	/**
+	 * Sets how long a task may run before its stack is captured and logged.
+	 *
+	 * @param threshold the threshold
+	 * @param unit      the unit of threshold
+	 */
+	public void setSlowTaskThreshold(long threshold, TimeUnit unit) {
+		this.slowTaskNanos = unit.toNanos(threshold);
+	}
+
+	public long getSlowTaskThreshold(TimeUnit unit) {
+		return unit.convert(this.slowTaskNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private void checkSlowTasks() {
+		for (InstrumentedExecutor executor : getInstrumentedExecutors()) {
+			executor.checkSlowTasks(this.slowTaskNanos, task -> this.bootstrap.getLogger()
+					.warning("Task " + task.getTask() + " on thread " + task.getThread() + " has been running for " +
+							task.getRunningMillis() + "ms\n" + task.getStack()));
+		}
+	}
+
+	/**
+	 * Gets if {@link #virtual()} is backed by virtual threads.
+	 *
+	 * @return if virtual threads are available
+	 */
+	public boolean hasVirtualThreads() {
+		return this.virtual != null;
+	}
+
+	/**
+	 * Gets the number of tasks rejected by the {@link #io()} executor because
+	 * its queue was full.
+	 *
+	 * @return the number of rejected tasks
+	 */
+	public long getIoRejectedCount() {
+		return this.ioRejected.sum();
 	}
 
 	@Override
 	public SchedulerTask asyncLater(Runnable task, long delay, TimeUnit unit) {
-		ScheduledFuture<?> future = this.scheduler.schedule(() -> this.worker.execute(task), delay, unit);
-		return () -> future.cancel(false);
+		return this.scheduler.schedule(() -> this.instrumentedWorker.execute(task), delay, unit);
 	}
 
 	@Override
 	public SchedulerTask asyncRepeating(Runnable task, long interval, TimeUnit unit) {
-		ScheduledFuture<?> future = this.scheduler.scheduleAtFixedRate(() -> this.worker.execute(task),
+		return this.scheduler.scheduleAtFixedRate(() -> this.instrumentedWorker.execute(task),
 				interval,
 				interval,
 				unit);
-		return () -> future.cancel(false);
 	}
 
 	@Override
@@ -65,7 +198,7 @@ public abstract class AbstractJavaScheduler implements SchedulerAdapter {
 		try {
 			if (!this.scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
 				this.bootstrap.getLogger().severe("Timed out waiting for the FloraCore scheduler to terminate");
-				reportRunningTasks(thread -> thread.getName().equals("floracore-scheduler"));
+				reportRunningTasks(thread -> thread.getName().equals(TIMER_THREAD_NAME));
 			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
@@ -75,12 +208,25 @@ public abstract class AbstractJavaScheduler implements SchedulerAdapter {
 	@Override
 	public void shutdownExecutor() {
 		this.worker.shutdown();
+		this.io.shutdown();
+		if (this.virtual != null) {
+			this.virtual.shutdown();
+		}
 		try {
 			if (!this.worker.awaitTermination(1, TimeUnit.MINUTES)) {
 				this.bootstrap.getLogger()
 						.severe("Timed out waiting for the FloraCore worker thread pool to terminate");
 				reportRunningTasks(thread -> thread.getName().startsWith("floracore-worker-"));
 			}
+			if (!this.io.awaitTermination(1, TimeUnit.MINUTES)) {
+				this.bootstrap.getLogger()
+						.severe("Timed out waiting for the FloraCore I/O thread pool to terminate");
+				reportRunningTasks(thread -> thread.getName().startsWith("floracore-io-"));
+			}
+			if (this.virtual != null && !this.virtual.awaitTermination(1, TimeUnit.MINUTES)) {
+				this.bootstrap.getLogger()
+						.severe("Timed out waiting for the FloraCore virtual thread executor to terminate");
+			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
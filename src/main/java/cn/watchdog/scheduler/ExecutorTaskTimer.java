@@ -0,0 +1,50 @@
+package cn.watchdog.scheduler;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TaskTimer} backed by a single threaded
+ * {@link ScheduledThreadPoolExecutor}.
+ *
+ * <p>Timing is as precise as the executor allows, but each schedule and
+ * cancel costs O(log n) in the executor's heap. Prefer
+ * {@link HashedTimingWheel} for large numbers of short lived timers.</p>
+ */
+public class ExecutorTaskTimer implements TaskTimer {
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	public ExecutorTaskTimer(String threadName) {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = Executors.defaultThreadFactory().newThread(r);
+			thread.setName(threadName);
+			return thread;
+		});
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	@Override
+	public SchedulerTask schedule(Runnable task, long delay, TimeUnit unit) {
+		ScheduledFuture<?> future = this.scheduler.schedule(task, delay, unit);
+		return () -> future.cancel(false);
+	}
+
+	@Override
+	public SchedulerTask scheduleAtFixedRate(Runnable task, long initialDelay, long interval, TimeUnit unit) {
+		ScheduledFuture<?> future = this.scheduler.scheduleAtFixedRate(task, initialDelay, interval, unit);
+		return () -> future.cancel(false);
+	}
+
+	@Override
+	public void shutdown() {
+		this.scheduler.shutdown();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.scheduler.awaitTermination(timeout, unit);
+	}
+}
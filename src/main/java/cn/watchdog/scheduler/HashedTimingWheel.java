@@ -0,0 +1,265 @@
+package cn.watchdog.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link TaskTimer} which hashes timeouts into a ring of buckets, one per
+ * tick, in the style of Varghese and Lauck's hashed timing wheel.
+ *
+ * <p>Scheduling and cancelling are O(1): new timeouts and cancellations are
+ * queued, and moved into or unlinked from their bucket by the timer thread
+ * at the start of the next tick. Timeouts are only as precise as the tick,
+ * which suits large numbers of short lived timers such as holds, cooldowns
+ * and cache expiries.</p>
+ */
+public class HashedTimingWheel implements TaskTimer {
+	/**
+	 * Bounds the time spent moving new timeouts into buckets on a single tick.
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+	private final long tickNanos;
+	private final int mask;
+	private final Bucket[] wheel;
+
+	private final Queue<Timeout> pendingAdds = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> pendingCancels = new ConcurrentLinkedQueue<>();
+
+	private final Thread thread;
+	private final long startTime;
+	private volatile boolean shutdown = false;
+
+	// only accessed by the timer thread
+	private long tick = 0;
+
+	/**
+	 * Creates a new timing wheel, and starts its thread.
+	 *
+	 * @param threadName the name of the timer thread
+	 * @param tick       the tick duration
+	 * @param unit       the unit of tick
+	 * @param wheelSize  the number of buckets, rounded up to a power of two
+	 */
+	public HashedTimingWheel(String threadName, long tick, TimeUnit unit, int wheelSize) {
+		if (tick <= 0) {
+			throw new IllegalArgumentException("tick must be positive: " + tick);
+		}
+		if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("wheelSize must be between 1 and 2^30: " + wheelSize);
+		}
+		this.tickNanos = unit.toNanos(tick);
+
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			this.wheel[i] = new Bucket();
+		}
+
+		this.startTime = System.nanoTime();
+		this.thread = new Thread(this::run, threadName);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public SchedulerTask schedule(Runnable task, long delay, TimeUnit unit) {
+		return add(task, unit.toNanos(delay), 0);
+	}
+
+	@Override
+	public SchedulerTask scheduleAtFixedRate(Runnable task, long initialDelay, long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval must be positive: " + interval);
+		}
+		return add(task, unit.toNanos(initialDelay), unit.toNanos(interval));
+	}
+
+	private Timeout add(Runnable task, long delayNanos, long periodNanos) {
+		if (this.shutdown) {
+			throw new IllegalStateException("Timer has been shut down");
+		}
+		long deadline = System.nanoTime() - this.startTime + Math.max(0, delayNanos);
+		Timeout timeout = new Timeout(this, task, deadline, periodNanos);
+		this.pendingAdds.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void shutdown() {
+		this.shutdown = true;
+		LockSupport.unpark(this.thread);
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		this.thread.join(Math.max(1, unit.toMillis(timeout)));
+		return !this.thread.isAlive();
+	}
+
+	private void run() {
+		while (!this.shutdown) {
+			if (!waitForNextTick()) {
+				break;
+			}
+			processCancellations();
+			transferTimeouts();
+			expire(this.wheel[(int) (this.tick & this.mask)]);
+			this.tick++;
+		}
+	}
+
+	private boolean waitForNextTick() {
+		long deadline = this.tickNanos * (this.tick + 1);
+		while (true) {
+			if (this.shutdown) {
+				return false;
+			}
+			long sleep = deadline - (System.nanoTime() - this.startTime);
+			if (sleep <= 0) {
+				return true;
+			}
+			LockSupport.parkNanos(this, sleep);
+		}
+	}
+
+	private void processCancellations() {
+		Timeout timeout;
+		while ((timeout = this.pendingCancels.poll()) != null) {
+			// may still be waiting in pendingAdds, in which case it is skipped there
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void transferTimeouts() {
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			Timeout timeout = this.pendingAdds.poll();
+			if (timeout == null) {
+				break;
+			}
+			if (timeout.state != Timeout.ST_INIT) {
+				continue;
+			}
+			insert(timeout);
+		}
+	}
+
+	private void insert(Timeout timeout) {
+		long calculated = timeout.deadline / this.tickNanos;
+		timeout.remainingRounds = (calculated - this.tick) / this.wheel.length;
+		// overdue timeouts go into the current bucket and run this tick
+		long ticks = Math.max(calculated, this.tick);
+		this.wheel[(int) (ticks & this.mask)].add(timeout);
+	}
+
+	private void expire(Bucket bucket) {
+		Timeout timeout = bucket.head;
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.state == Timeout.ST_CANCELLED) {
+				bucket.remove(timeout);
+			} else if (timeout.remainingRounds <= 0) {
+				bucket.remove(timeout);
+				timeout.fire();
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	private static final class Timeout implements SchedulerTask {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+				AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final HashedTimingWheel timer;
+		private final Runnable task;
+		private final long period;
+		private volatile int state = ST_INIT;
+
+		// only accessed by the timer thread once queued
+		private long deadline;
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout prev;
+		private Timeout next;
+
+		Timeout(HashedTimingWheel timer, Runnable task, long deadline, long period) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		@Override
+		public void cancel() {
+			if (STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+				this.timer.pendingCancels.add(this);
+			}
+		}
+
+		void fire() {
+			if (this.period == 0 && !STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			try {
+				this.task.run();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+			if (this.period != 0 && this.state == ST_INIT) {
+				this.deadline += this.period;
+				// re-queued rather than inserted, so it never lands in the bucket being expired
+				this.timer.pendingAdds.add(this);
+			}
+		}
+	}
+
+	/**
+	 * An intrusive doubly linked list, so removal needs no search and
+	 * allocates nothing.
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (this.head == null) {
+				this.head = this.tail = timeout;
+			} else {
+				this.tail.next = timeout;
+				timeout.prev = this.tail;
+				this.tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			} else {
+				this.head = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			} else {
+				this.tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package cn.watchdog.scheduler;
+
+import cn.watchdog.util.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * An {@link Executor} which records how long tasks wait to be run and how
+ * long they run for.
+ *
+ * <p>Tasks which are currently running are tracked per thread, so
+ * {@link #checkSlowTasks(long, Consumer)} can capture the stack of a task
+ * while it is still stuck, rather than only after it returns.</p>
+ */
+public class InstrumentedExecutor implements Executor {
+	private static final int MAX_SLOW_TASKS = 16;
+
+	private final String name;
+	private final Executor delegate;
+
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram runTime = new LatencyHistogram();
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder started = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+
+	private final Map<Thread, RunningTask> running = new ConcurrentHashMap<>();
+	private final Deque<SlowTask> slowTasks = new ArrayDeque<>();
+
+	public InstrumentedExecutor(String name, Executor delegate) {
+		this.name = name;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		long submittedAt = System.nanoTime();
+		this.submitted.increment();
+		try {
+			this.delegate.execute(() -> run(task, submittedAt));
+		} catch (RuntimeException e) {
+			// rejected, it will never start
+			this.submitted.decrement();
+			throw e;
+		}
+	}
+
+	private void run(Runnable task, long submittedAt) {
+		long start = System.nanoTime();
+		this.queueWait.record(start - submittedAt);
+		this.started.increment();
+
+		Thread thread = Thread.currentThread();
+		// tasks may run nested, e.g. a ForkJoinPool helping with another task while joining
+		RunningTask outer = this.running.put(thread, new RunningTask(task, start));
+		try {
+			task.run();
+		} finally {
+			if (outer != null) {
+				this.running.put(thread, outer);
+			} else {
+				this.running.remove(thread);
+			}
+			this.runTime.record(System.nanoTime() - start);
+			this.completed.increment();
+		}
+	}
+
+	/**
+	 * Captures the stack of every task which has been running for longer
+	 * than the threshold. Each task is reported at most once.
+	 *
+	 * @param thresholdNanos the threshold, in nanoseconds
+	 * @param reporter       called with each newly captured slow task
+	 */
+	public void checkSlowTasks(long thresholdNanos, Consumer<SlowTask> reporter) {
+		long now = System.nanoTime();
+		for (Map.Entry<Thread, RunningTask> entry : this.running.entrySet()) {
+			RunningTask task = entry.getValue();
+			if (task.reported || now - task.start < thresholdNanos) {
+				continue;
+			}
+			task.reported = true;
+
+			Thread thread = entry.getKey();
+			String stack = Arrays.stream(thread.getStackTrace())
+					.map(el -> "  " + el)
+					.collect(Collectors.joining("\n"));
+			SlowTask slowTask = new SlowTask(this.name, thread.getName(), taskName(task.task),
+					TimeUnit.NANOSECONDS.toMillis(now - task.start), stack);
+			synchronized (this.slowTasks) {
+				if (this.slowTasks.size() == MAX_SLOW_TASKS) {
+					this.slowTasks.removeFirst();
+				}
+				this.slowTasks.addLast(slowTask);
+			}
+			reporter.accept(slowTask);
+		}
+	}
+
+	private static String taskName(Runnable task) {
+		String name = task.getClass().getName();
+		// lambdas are named Owner$$Lambda$123/0x..., the owner is the useful part
+		int lambda = name.indexOf("$$Lambda");
+		return lambda == -1 ? name : name.substring(0, lambda) + " (lambda)";
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public LatencyHistogram getQueueWait() {
+		return this.queueWait;
+	}
+
+	public LatencyHistogram getRunTime() {
+		return this.runTime;
+	}
+
+	public long getSubmitted() {
+		return this.submitted.sum();
+	}
+
+	public long getActive() {
+		return this.started.sum() - this.completed.sum();
+	}
+
+	public long getQueued() {
+		return this.submitted.sum() - this.started.sum();
+	}
+
+	/**
+	 * Gets the most recently captured slow tasks, oldest first.
+	 *
+	 * @return the slow tasks
+	 */
+	public List<SlowTask> getSlowTasks() {
+		synchronized (this.slowTasks) {
+			return new ArrayList<>(this.slowTasks);
+		}
+	}
+
+	/**
+	 * Clears the timing histograms and captured slow tasks.
+	 */
+	public void reset() {
+		this.queueWait.reset();
+		this.runTime.reset();
+		synchronized (this.slowTasks) {
+			this.slowTasks.clear();
+		}
+	}
+
+	private static final class RunningTask {
+		private final Runnable task;
+		private final long start;
+		private volatile boolean reported = false;
+
+		RunningTask(Runnable task, long start) {
+			this.task = task;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * A task which was captured while running for longer than the threshold.
+	 */
+	public static final class SlowTask {
+		private final String executor;
+		private final String thread;
+		private final String task;
+		private final long runningMillis;
+		private final String stack;
+
+		SlowTask(String executor, String thread, String task, long runningMillis, String stack) {
+			this.executor = executor;
+			this.thread = thread;
+			this.task = task;
+			this.runningMillis = runningMillis;
+			this.stack = stack;
+		}
+
+		public String getExecutor() {
+			return this.executor;
+		}
+
+		public String getThread() {
+			return this.thread;
+		}
+
+		public String getTask() {
+			return this.task;
+		}
+
+		public long getRunningMillis() {
+			return this.runningMillis;
+		}
+
+		public String getStack() {
+			return this.stack;
+		}
+	}
+
+}
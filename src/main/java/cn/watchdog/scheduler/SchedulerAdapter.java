@@ -24,6 +24,35 @@ public interface SchedulerAdapter {
 	 */
 	Executor async();
 
+	/**
+	 * Executes a blocking task, such as a database query or HTTP request.
+	 *
+	 * @param task the task
+	 */
+	default void executeIo(Runnable task) {
+		io().execute(task);
+	}
+
+	/**
+	 * Gets an executor for blocking tasks, separate from {@link #async()} so
+	 * blocked threads do not starve CPU bound work.
+	 *
+	 * @return a blocking task executor instance
+	 */
+	default Executor io() {
+		return async();
+	}
+
+	/**
+	 * Gets an executor which runs each task on a virtual thread, when the
+	 * runtime supports them. Falls back to {@link #io()} otherwise.
+	 *
+	 * @return a virtual thread executor instance
+	 */
+	default Executor virtual() {
+		return io();
+	}
+
 	/**
 	 * Executes a task sync
 	 *
@@ -71,7 +100,7 @@ public interface SchedulerAdapter {
 	/**
 	 * Shuts down the executor instance.
 	 *
-	 * <p>{@link #async()} and {@link #executeAsync(Runnable)}.</p>
+	 * <p>{@link #async()}, {@link #io()}, {@link #virtual()} and their execute methods.</p>
 	 */
 	void shutdownExecutor();
 
@@ -0,0 +1,49 @@
+package cn.watchdog.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires delayed and repeating tasks for an {@link AbstractJavaScheduler}.
+ *
+ * <p>Tasks are run on the timer's own thread, so they must be short. The
+ * scheduler only uses them to hand the real work to an executor.</p>
+ */
+public interface TaskTimer {
+
+	/**
+	 * Runs a task once after a delay.
+	 *
+	 * @param task  the task
+	 * @param delay the delay
+	 * @param unit  the unit of delay
+	 * @return the scheduled task
+	 */
+	SchedulerTask schedule(Runnable task, long delay, TimeUnit unit);
+
+	/**
+	 * Runs a task repeatedly at a fixed rate.
+	 *
+	 * @param task         the task
+	 * @param initialDelay the delay before the first run
+	 * @param interval     the interval between runs
+	 * @param unit         the unit of initialDelay and interval
+	 * @return the scheduled task
+	 */
+	SchedulerTask scheduleAtFixedRate(Runnable task, long initialDelay, long interval, TimeUnit unit);
+
+	/**
+	 * Stops the timer. Pending tasks are discarded.
+	 */
+	void shutdown();
+
+	/**
+	 * Waits for the timer thread to stop after {@link #shutdown()}.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    the unit of timeout
+	 * @return true if the timer stopped
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+
+}
@@ -0,0 +1,96 @@
+package cn.watchdog.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link Executor} which queues tasks until they are drained by a single
+ * consumer, typically once per server tick.
+ *
+ * <p>Each drain runs queued tasks until the time budget is used up, and
+ * leaves the rest for the next drain, so a large burst of callbacks is
+ * spread over several ticks instead of stalling one.</p>
+ */
+public class TickBudgetExecutor implements Executor {
+	private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+	private volatile long budgetNanos;
+
+	public TickBudgetExecutor(long budget, TimeUnit unit) {
+		setBudget(budget, unit);
+	}
+
+	/**
+	 * Sets the maximum time spent per drain. At least one task is run per
+	 * drain, however long it takes.
+	 *
+	 * @param budget the budget
+	 * @param unit   the unit of budget
+	 */
+	public void setBudget(long budget, TimeUnit unit) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("budget must be positive");
+		}
+		this.budgetNanos = unit.toNanos(budget);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		this.queue.offer(task);
+	}
+
+	/**
+	 * Gets the number of tasks waiting to be run.
+	 *
+	 * @return the queue size
+	 */
+	public int getQueued() {
+		return this.queue.size();
+	}
+
+	/**
+	 * Runs queued tasks until the budget is used up. Must only be called
+	 * from the consuming thread.
+	 *
+	 * @return the number of tasks run
+	 */
+	public int drain() {
+		long deadline = System.nanoTime() + this.budgetNanos;
+		int run = 0;
+		Runnable task;
+		do {
+			task = this.queue.poll();
+			if (task == null) {
+				break;
+			}
+			runSafely(task);
+			run++;
+		} while (System.nanoTime() - deadline < 0);
+		return run;
+	}
+
+	/**
+	 * Runs all queued tasks, ignoring the budget.
+	 *
+	 * @return the number of tasks run
+	 */
+	public int drainAll() {
+		int run = 0;
+		Runnable task;
+		while ((task = this.queue.poll()) != null) {
+			runSafely(task);
+			run++;
+		}
+		return run;
+	}
+
+	private static void runSafely(Runnable task) {
+		try {
+			task.run();
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+}
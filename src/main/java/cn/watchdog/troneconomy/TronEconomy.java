@@ -6,8 +6,13 @@ import cn.watchdog.classpath.ReflectionClassPathAppender;
 import cn.watchdog.dependencies.Dependency;
 import cn.watchdog.dependencies.DependencyManager;
 import cn.watchdog.dependencies.DependencyManagerImpl;
+import cn.watchdog.troneconomy.command.EcoCommand;
+import cn.watchdog.troneconomy.player.AsyncTabCompleteListener;
+import cn.watchdog.troneconomy.player.PlayerNameIndex;
+import cn.watchdog.troneconomy.player.PlayerNameListener;
 import lombok.Getter;
 import okhttp3.OkHttpClient;
+import org.bukkit.command.PluginCommand;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.IOException;
@@ -32,6 +37,9 @@ public final class TronEconomy extends JavaPlugin {
 	@Getter
 	private DependencyManager dependencyManager;
 	private OkHttpClient httpClient;
+	// init during enable
+	@Getter
+	private PlayerNameIndex playerNameIndex;
 
 	public TronEconomy() {
 		this.schedulerAdapter = new BukkitSchedulerAdapter(this);
@@ -47,12 +55,37 @@ public final class TronEconomy extends JavaPlugin {
 
 	@Override
 	public void onEnable() {
+		// start running sync tasks, one budgeted batch per tick
+		this.schedulerAdapter.startSync();
+
 		// set up a byte bin instance
 		this.httpClient = new OkHttpClient.Builder().callTimeout(15, TimeUnit.SECONDS).build();
+
+		// index player names for tab completion
+		this.playerNameIndex = new PlayerNameIndex(this);
+		getServer().getPluginManager().registerEvents(new PlayerNameListener(this.playerNameIndex), this);
+		if (AsyncTabCompleteListener.isSupported()) {
+			getServer().getPluginManager().registerEvents(new AsyncTabCompleteListener(this.playerNameIndex), this);
+		}
+		this.schedulerAdapter.asyncRepeating(() -> this.schedulerAdapter.executeIo(this.playerNameIndex::save), 5, TimeUnit.MINUTES);
+
+		// register commands
+		EcoCommand ecoCommand = new EcoCommand(this);
+		PluginCommand command = getCommand("eco");
+		command.setExecutor(ecoCommand);
+		command.setTabCompleter(ecoCommand);
 	}
 
 	@Override
 	public void onDisable() {
+		// run any sync tasks which are still queued
+		this.schedulerAdapter.shutdownSync();
+
+		// persist names learned since the last save
+		if (this.playerNameIndex != null) {
+			this.playerNameIndex.save();
+		}
+
 		// shutdown okhttp
 		this.httpClient.dispatcher().executorService().shutdown();
 		this.httpClient.connectionPool().evictAll();
@@ -0,0 +1,195 @@
+package cn.watchdog.troneconomy.api;
+
+import cn.watchdog.scheduler.SchedulerAdapter;
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.ledger.Account;
+import cn.watchdog.troneconomy.ledger.Ledger;
+import cn.watchdog.troneconomy.ledger.MutationFuture;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.transaction.TransactionResult;
+
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking access to the economy, for use by other plugins.
+ *
+ * <p>Every operation takes a deadline and the executor its future should be
+ * completed on, so callers on the main thread can pass
+ * {@link SchedulerAdapter#sync()} and never wait on the database. When the
+ * deadline passes before a change has started, the future fails with a
+ * {@link TimeoutException} and the change is dropped rather than run late.
+ * A change which has started always reports its real outcome, even after
+ * the deadline.</p>
+ *
+ * <p>Accounts are loaded from storage into the {@link Ledger} on first use.
+ * {@link #tryGetBalance(UUID)} only ever reads what is already loaded.</p>
+ */
+public class AsyncEconomy {
+	private final TronEconomy plugin;
+	private final Ledger ledger;
+	private final StorageImplementation storage;
+
+	// loads in flight, so concurrent callers share one storage read
+	private final Map<UUID, CompletableFuture<Account>> loading = new ConcurrentHashMap<>();
+
+	public AsyncEconomy(TronEconomy plugin, Ledger ledger, StorageImplementation storage) {
+		this.plugin = plugin;
+		this.ledger = ledger;
+		this.storage = storage;
+	}
+
+	/**
+	 * Gets the balance of an account if it is already loaded. Never blocks.
+	 *
+	 * @param uniqueId the account id
+	 * @return the balance, or empty if the account is not loaded
+	 */
+	public OptionalLong tryGetBalance(UUID uniqueId) {
+		Account account = this.ledger.getLoadedAccount(uniqueId);
+		return account == null || !account.isLoaded() ? OptionalLong.empty() : OptionalLong.of(account.getBalance());
+	}
+
+	public CompletableFuture<Long> getBalance(UUID uniqueId, long timeout, TimeUnit unit, Executor executor) {
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		withDeadline(future, timeout, unit);
+		whenLoaded(uniqueId, future, account -> future.complete(account.getBalance()));
+		return completeOn(future, executor);
+	}
+
+	public CompletableFuture<TransactionResult> deposit(UUID transactionId, UUID uniqueId, long amount,
+	                                                    long timeout, TimeUnit unit, Executor executor) {
+		MutationFuture<TransactionResult> future = new MutationFuture<>();
+		withDeadline(future, timeout, unit);
+		whenLoaded(uniqueId, future, account -> this.ledger.deposit(transactionId, uniqueId, amount, future));
+		return completeOn(future, executor);
+	}
+
+	public CompletableFuture<TransactionResult> withdraw(UUID transactionId, UUID uniqueId, long amount,
+	                                                     long timeout, TimeUnit unit, Executor executor) {
+		MutationFuture<TransactionResult> future = new MutationFuture<>();
+		withDeadline(future, timeout, unit);
+		whenLoaded(uniqueId, future, account -> this.ledger.withdraw(transactionId, uniqueId, amount, future));
+		return completeOn(future, executor);
+	}
+
+	public CompletableFuture<TransactionResult> transfer(UUID transactionId, UUID from, UUID to, long amount,
+	                                                     long timeout, TimeUnit unit, Executor executor) {
+		MutationFuture<TransactionResult> future = new MutationFuture<>();
+		withDeadline(future, timeout, unit);
+		whenLoaded(from, future, source -> whenLoaded(to, future, target ->
+				this.ledger.transfer(transactionId, from, to, amount, future)));
+		return completeOn(future, executor);
+	}
+
+	/**
+	 * Runs an action once an account is loaded, unless the future has
+	 * already been completed by then.
+	 */
+	private <T> void whenLoaded(UUID uniqueId, CompletableFuture<T> future, Consumer<Account> action) {
+		load(uniqueId).whenComplete((account, e) -> {
+			if (future.isDone()) {
+				return;
+			}
+			if (e != null) {
+				future.completeExceptionally(e);
+				return;
+			}
+			try {
+				action.accept(account);
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+	}
+
+	private CompletableFuture<Account> load(UUID uniqueId) {
+		Account account = this.ledger.getLoadedAccount(uniqueId);
+		if (account != null && account.isLoaded()) {
+			return CompletableFuture.completedFuture(account);
+		}
+
+		CompletableFuture<Account> future = new CompletableFuture<>();
+		CompletableFuture<Account> existing = this.loading.putIfAbsent(uniqueId, future);
+		if (existing != null) {
+			return existing;
+		}
+
+		try {
+			this.plugin.getScheduler().executeIo(() -> {
+				try {
+					OptionalLong balance = this.storage.loadBalance(uniqueId);
+					this.ledger.loadAccount(uniqueId, balance.orElse(0L)).whenComplete((loaded, e) -> {
+						this.loading.remove(uniqueId, future);
+						if (e != null) {
+							future.completeExceptionally(e);
+						} else {
+							future.complete(loaded);
+						}
+					});
+				} catch (Throwable e) {
+					this.loading.remove(uniqueId, future);
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.loading.remove(uniqueId, future);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private <T> void withDeadline(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+		withDeadline(future, future::completeExceptionally, timeout, unit);
+	}
+
+	/**
+	 * Sets a deadline which only expires a change which has not started.
+	 */
+	private <T> void withDeadline(MutationFuture<T> future, long timeout, TimeUnit unit) {
+		withDeadline(future, future::expire, timeout, unit);
+	}
+
+	private void withDeadline(CompletableFuture<?> future, Consumer<TimeoutException> expire, long timeout, TimeUnit unit) {
+		if (timeout <= 0) {
+			expire.accept(new TimeoutException());
+			return;
+		}
+		SchedulerTask task = this.plugin.getScheduler().asyncLater(
+				() -> expire.accept(new TimeoutException("Deadline of " + timeout + " " + unit + " passed")),
+				timeout,
+				unit);
+		future.whenComplete((result, e) -> task.cancel());
+	}
+
+	/**
+	 * Hands the outcome of a future to the caller's executor. Cancelling the
+	 * returned future also cancels the underlying one, dropping queued work
+	 * which has not started.
+	 */
+	private static <T> CompletableFuture<T> completeOn(CompletableFuture<T> future, Executor executor) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		future.whenComplete((value, e) -> executor.execute(() -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+			} else {
+				result.complete(value);
+			}
+		}));
+		result.whenComplete((value, e) -> {
+			if (result.isCancelled()) {
+				future.cancel(false);
+			}
+		});
+		return result;
+	}
+}
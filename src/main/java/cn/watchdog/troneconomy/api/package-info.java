@@ -0,0 +1,4 @@
+/**
+ * 插件异步经济接口包。
+ */
+package cn.watchdog.troneconomy.api;
@@ -0,0 +1,102 @@
+package cn.watchdog.troneconomy.command;
+
+import cn.watchdog.scheduler.AbstractJavaScheduler;
+import cn.watchdog.scheduler.InstrumentedExecutor;
+import cn.watchdog.troneconomy.TronEconomy;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code /eco} command.
+ */
+public class EcoCommand implements CommandExecutor, TabCompleter {
+	private static final String DEBUG_PERMISSION = "troneconomy.command.debug";
+
+	private final TronEconomy plugin;
+
+	public EcoCommand(TronEconomy plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+		if (args.length >= 2 && args[0].equalsIgnoreCase("debug") && args[1].equalsIgnoreCase("scheduler")) {
+			if (!sender.hasPermission(DEBUG_PERMISSION)) {
+				sender.sendMessage("§cYou do not have permission to use this command.");
+				return true;
+			}
+			boolean reset = args.length >= 3 && args[2].equalsIgnoreCase("reset");
+			debugScheduler(sender, reset);
+			return true;
+		}
+
+		sender.sendMessage("§cUsage: /" + label + " debug scheduler [reset]");
+		return true;
+	}
+
+	private void debugScheduler(CommandSender sender, boolean reset) {
+		AbstractJavaScheduler scheduler = this.plugin.getScheduler();
+		if (reset) {
+			for (InstrumentedExecutor executor : scheduler.getInstrumentedExecutors()) {
+				executor.reset();
+			}
+			sender.sendMessage("§aScheduler statistics reset.");
+			return;
+		}
+
+		sender.sendMessage("§6Scheduler §7(slow task threshold " + scheduler.getSlowTaskThreshold(TimeUnit.MILLISECONDS) +
+				"ms, virtual threads " + (scheduler.hasVirtualThreads() ? "available" : "unavailable") + ")");
+
+		List<InstrumentedExecutor.SlowTask> slowTasks = new ArrayList<>();
+		for (InstrumentedExecutor executor : scheduler.getInstrumentedExecutors()) {
+			sender.sendMessage("§e" + executor.getName() + "§7: " + executor.getActive() + " active, " +
+					executor.getQueued() + " queued, " + executor.getSubmitted() + " submitted");
+			sender.sendMessage("§7  wait " + executor.getQueueWait().summary());
+			sender.sendMessage("§7  run  " + executor.getRunTime().summary());
+			slowTasks.addAll(executor.getSlowTasks());
+		}
+		sender.sendMessage("§7io rejected: " + scheduler.getIoRejectedCount());
+
+		if (!slowTasks.isEmpty()) {
+			sender.sendMessage("§6Recent slow tasks §7(stacks are in the console):");
+			for (InstrumentedExecutor.SlowTask task : slowTasks) {
+				sender.sendMessage("§7- §e" + task.getTask() + "§7 on " + task.getThread() + ", " +
+						task.getRunningMillis() + "ms");
+			}
+		}
+	}
+
+	@Override
+	public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+		if (args.length == 1) {
+			return filter(Collections.singletonList("debug"), args[0]);
+		}
+		if (args.length == 2 && args[0].equalsIgnoreCase("debug")) {
+			return filter(Collections.singletonList("scheduler"), args[1]);
+		}
+		if (args.length == 3 && args[0].equalsIgnoreCase("debug") && args[1].equalsIgnoreCase("scheduler")) {
+			return filter(Collections.singletonList("reset"), args[2]);
+		}
+		return Collections.emptyList();
+	}
+
+	private static List<String> filter(List<String> options, String prefix) {
+		String lower = prefix.toLowerCase(Locale.ROOT);
+		List<String> matches = new ArrayList<>();
+		for (String option : options) {
+			if (option.startsWith(lower)) {
+				matches.add(option);
+			}
+		}
+		return matches;
+	}
+
+}
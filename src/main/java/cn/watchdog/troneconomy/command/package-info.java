@@ -0,0 +1,4 @@
+/**
+ * 插件命令的包。
+ */
+package cn.watchdog.troneconomy.command;
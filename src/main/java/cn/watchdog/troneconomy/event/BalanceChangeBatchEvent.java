@@ -0,0 +1,45 @@
+package cn.watchdog.troneconomy.event;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Called once per server tick with the net balance change of every account
+ * which changed since the previous batch.
+ *
+ * <p>Always called on the main thread. Changes are already applied and
+ * cannot be cancelled.</p>
+ */
+public class BalanceChangeBatchEvent extends Event {
+	private static final HandlerList HANDLERS = new HandlerList();
+
+	private final Map<UUID, Long> changes;
+
+	public BalanceChangeBatchEvent(Map<UUID, Long> changes) {
+		this.changes = Collections.unmodifiableMap(changes);
+	}
+
+	public static HandlerList getHandlerList() {
+		return HANDLERS;
+	}
+
+	/**
+	 * Gets the net change per account, in minor units. Accounts whose changes
+	 * cancelled out are included with a change of zero.
+	 *
+	 * @return the changes
+	 */
+	public Map<UUID, Long> getChanges() {
+		return this.changes;
+	}
+
+	@Override
+	public HandlerList getHandlers() {
+		return HANDLERS;
+	}
+
+}
@@ -0,0 +1,48 @@
+package cn.watchdog.troneconomy.event;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.UUID;
+
+/**
+ * Called for each account in a {@link BalanceChangeBatchEvent}, after the
+ * batch event, if per-change events are enabled.
+ *
+ * <p>Listening to the batch event is considerably cheaper during mass
+ * payouts.</p>
+ */
+public class BalanceChangeEvent extends Event {
+	private static final HandlerList HANDLERS = new HandlerList();
+
+	private final UUID uniqueId;
+	private final long change;
+
+	public BalanceChangeEvent(UUID uniqueId, long change) {
+		this.uniqueId = uniqueId;
+		this.change = change;
+	}
+
+	public static HandlerList getHandlerList() {
+		return HANDLERS;
+	}
+
+	public UUID getUniqueId() {
+		return this.uniqueId;
+	}
+
+	/**
+	 * Gets the net change of the account during the tick, in minor units.
+	 *
+	 * @return the change
+	 */
+	public long getChange() {
+		return this.change;
+	}
+
+	@Override
+	public HandlerList getHandlers() {
+		return HANDLERS;
+	}
+
+}
@@ -0,0 +1,80 @@
+package cn.watchdog.troneconomy.event;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.ledger.BalanceChangeListener;
+import org.bukkit.plugin.PluginManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects balance changes from any thread and fires them to other plugins
+ * as one {@link BalanceChangeBatchEvent} per tick.
+ *
+ * <p>Changes are appended to a lock free queue. The first change after a
+ * drain schedules a single drain on the sync executor, so a burst of any
+ * size costs one main thread task and one event.</p>
+ */
+public class BalanceEventDispatcher implements BalanceChangeListener {
+	private final TronEconomy plugin;
+	private final boolean perChangeEvents;
+	private final Queue<Change> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/**
+	 * Creates a dispatcher.
+	 *
+	 * @param plugin          the plugin
+	 * @param perChangeEvents if a {@link BalanceChangeEvent} should also be called per account
+	 */
+	public BalanceEventDispatcher(TronEconomy plugin, boolean perChangeEvents) {
+		this.plugin = plugin;
+		this.perChangeEvents = perChangeEvents;
+	}
+
+	@Override
+	public void onBalanceChange(UUID uniqueId, long delta) {
+		this.queue.offer(new Change(uniqueId, delta));
+		if (this.scheduled.compareAndSet(false, true)) {
+			this.plugin.getScheduler().executeSync(this::drain);
+		}
+	}
+
+	private void drain() {
+		// changes queued from here on schedule the next drain
+		this.scheduled.set(false);
+
+		Map<UUID, Long> changes = new LinkedHashMap<>();
+		Change change;
+		while ((change = this.queue.poll()) != null) {
+			changes.merge(change.uniqueId, change.delta, Long::sum);
+		}
+		if (changes.isEmpty()) {
+			return;
+		}
+
+		PluginManager pluginManager = this.plugin.getServer().getPluginManager();
+		pluginManager.callEvent(new BalanceChangeBatchEvent(changes));
+
+		if (this.perChangeEvents && BalanceChangeEvent.getHandlerList().getRegisteredListeners().length != 0) {
+			for (Map.Entry<UUID, Long> entry : changes.entrySet()) {
+				pluginManager.callEvent(new BalanceChangeEvent(entry.getKey(), entry.getValue()));
+			}
+		}
+	}
+
+	private static final class Change {
+		private final UUID uniqueId;
+		private final long delta;
+
+		Change(UUID uniqueId, long delta) {
+			this.uniqueId = uniqueId;
+			this.delta = delta;
+		}
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 供其他插件监听的事件的包。
+ */
+package cn.watchdog.troneconomy.event;
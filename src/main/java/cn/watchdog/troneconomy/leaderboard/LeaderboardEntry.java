@@ -0,0 +1,46 @@
+package cn.watchdog.troneconomy.leaderboard;
+
+import java.util.UUID;
+
+/**
+ * A ranked account on a leaderboard.
+ */
+public final class LeaderboardEntry {
+	private final long rank;
+	private final UUID uniqueId;
+	private final long balance;
+
+	public LeaderboardEntry(long rank, UUID uniqueId, long balance) {
+		this.rank = rank;
+		this.uniqueId = uniqueId;
+		this.balance = balance;
+	}
+
+	/**
+	 * Gets the rank, starting at 1 for the richest account.
+	 *
+	 * @return the rank
+	 */
+	public long getRank() {
+		return this.rank;
+	}
+
+	public UUID getUniqueId() {
+		return this.uniqueId;
+	}
+
+	/**
+	 * Gets the balance, in minor units.
+	 *
+	 * @return the balance
+	 */
+	public long getBalance() {
+		return this.balance;
+	}
+
+	@Override
+	public String toString() {
+		return "LeaderboardEntry(rank=" + this.rank + ", uniqueId=" + this.uniqueId + ", balance=" + this.balance + ")";
+	}
+
+}
@@ -0,0 +1,168 @@
+package cn.watchdog.troneconomy.leaderboard;
+
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.resps.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Balance leaderboards held in Redis, one sorted set per currency.
+ *
+ * <p>Members are account ids and scores are balances in minor units, which
+ * doubles hold exactly up to 2<sup>53</sup>. Every server applies the
+ * changes it writes with {@code ZINCRBY}, so the sets are shared by the
+ * whole network, and pages and ranks cost O(log n) rather than a sort of the
+ * accounts table.</p>
+ */
+public class RedisLeaderboard {
+	private static final int REBUILD_CHUNK = 5_000;
+
+	private final JedisPool pool;
+	private final String keyPrefix;
+
+	public RedisLeaderboard(JedisPool pool, String keyPrefix) {
+		this.pool = pool;
+		this.keyPrefix = keyPrefix;
+	}
+
+	private String key(String currency) {
+		return this.keyPrefix + "leaderboard:" + currency;
+	}
+
+	/**
+	 * Applies changes which have been written to storage, in one pipeline.
+	 *
+	 * @param currency the currency
+	 * @param changes  the applied changes
+	 */
+	public void applyChanges(String currency, Collection<BalanceChange> changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		String key = key(currency);
+		try (Jedis jedis = this.pool.getResource(); Pipeline pipeline = jedis.pipelined()) {
+			for (BalanceChange change : changes) {
+				pipeline.zincrby(key, change.getDelta(), change.getUniqueId().toString());
+			}
+			pipeline.sync();
+		}
+	}
+
+	/**
+	 * Gets a page of the leaderboard, richest first.
+	 *
+	 * @param currency the currency
+	 * @param page     the page, starting at 0
+	 * @param pageSize the number of entries per page
+	 * @return the entries
+	 */
+	public List<LeaderboardEntry> getPage(String currency, int page, int pageSize) {
+		long start = (long) page * pageSize;
+		List<LeaderboardEntry> entries = new ArrayList<>(pageSize);
+		try (Jedis jedis = this.pool.getResource()) {
+			List<Tuple> tuples = jedis.zrevrangeWithScores(key(currency), start, start + pageSize - 1);
+			long rank = start + 1;
+			for (Tuple tuple : tuples) {
+				entries.add(new LeaderboardEntry(rank++, UUID.fromString(tuple.getElement()), (long) tuple.getScore()));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Gets the rank of an account.
+	 *
+	 * @param currency the currency
+	 * @param uniqueId the account id
+	 * @return the rank, starting at 1, or empty if the account is not ranked
+	 */
+	public OptionalLong getRank(String currency, UUID uniqueId) {
+		try (Jedis jedis = this.pool.getResource()) {
+			Long rank = jedis.zrevrank(key(currency), uniqueId.toString());
+			return rank == null ? OptionalLong.empty() : OptionalLong.of(rank + 1);
+		}
+	}
+
+	/**
+	 * Gets the number of ranked accounts.
+	 *
+	 * @param currency the currency
+	 * @return the number of accounts
+	 */
+	public long size(String currency) {
+		try (Jedis jedis = this.pool.getResource()) {
+			return jedis.zcard(key(currency));
+		}
+	}
+
+	/**
+	 * Rebuilds a leaderboard from storage, for first use or after Redis has
+	 * lost data. The new set is built under a separate key and swapped in at
+	 * the end, so readers never see a partial leaderboard.
+	 *
+	 * <p>Changes applied while the rebuild runs may be missed, so it is best
+	 * run while the network is quiet.</p>
+	 *
+	 * @param currency the currency
+	 * @param storage  the storage holding the currency
+	 * @return the number of ranked accounts
+	 * @throws Exception if the storage could not be read
+	 */
+	public long rebuild(String currency, StorageImplementation storage) throws Exception {
+		String key = key(currency);
+		String temp = key + ":rebuild";
+		long total;
+
+		try (Jedis jedis = this.pool.getResource()) {
+			try (Pipeline pipeline = jedis.pipelined()) {
+				pipeline.del(temp);
+				pipeline.sync();
+			}
+
+			Map<String, Double> scores = new HashMap<>(REBUILD_CHUNK * 2);
+			storage.scanBalances((uniqueId, balance) -> {
+				if (balance > 0) {
+					scores.put(uniqueId.toString(), (double) balance);
+					if (scores.size() >= REBUILD_CHUNK) {
+						addScores(jedis, temp, scores);
+					}
+				}
+			});
+			addScores(jedis, temp, scores);
+			total = jedis.zcard(temp);
+
+			try (Pipeline pipeline = jedis.pipelined()) {
+				if (total == 0) {
+					// RENAME fails on a missing key
+					pipeline.del(key);
+				} else {
+					pipeline.rename(temp, key);
+				}
+				pipeline.sync();
+			}
+		}
+		return total;
+	}
+
+	private static void addScores(Jedis jedis, String key, Map<String, Double> scores) {
+		if (scores.isEmpty()) {
+			return;
+		}
+		try (Pipeline pipeline = jedis.pipelined()) {
+			pipeline.zadd(key, scores);
+			pipeline.sync();
+		}
+		scores.clear();
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 排行榜的包。
+ */
+package cn.watchdog.troneconomy.leaderboard;
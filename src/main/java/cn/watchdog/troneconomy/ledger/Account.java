@@ -0,0 +1,131 @@
+package cn.watchdog.troneconomy.ledger;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An account held in the {@link Ledger}.
+ *
+ * <p>The balance is only written from within the account's mailbox, reads
+ * may happen from any thread.</p>
+ *
+ * <p>Striped accounts additionally accept deposits from any thread into a
+ * {@link LongAdder}, whose cells spread concurrent deposits over separate
+ * cache lines. Deposits are merged into the balance by the mailbox owner,
+ * which always happens before a withdrawal is checked; since the cells only
+ * ever grow, a merged balance is a safe lower bound for the real one.</p>
+ */
+public final class Account {
+	private final UUID uniqueId;
+	private final AccountMailbox mailbox;
+	private volatile long balance;
+	// false until the stored balance has been read, for accounts used before they were loaded
+	private volatile boolean loaded;
+	private boolean written = false;
+
+	// striped accounts only
+	private final LongAdder deposits;
+	private volatile long merged = 0L;
+
+	Account(UUID uniqueId, long balance, Executor executor, boolean striped, boolean loaded) {
+		this.uniqueId = uniqueId;
+		this.balance = balance;
+		this.loaded = loaded;
+		this.mailbox = new AccountMailbox(executor);
+		this.deposits = striped ? new LongAdder() : null;
+	}
+
+	public UUID getUniqueId() {
+		return this.uniqueId;
+	}
+
+	/**
+	 * Gets the balance, in minor units.
+	 *
+	 * <p>For striped accounts this may briefly lag behind concurrent
+	 * deposits, but never overstates the balance.</p>
+	 *
+	 * @return the balance
+	 */
+	public long getBalance() {
+		long balance = this.balance;
+		if (this.deposits == null) {
+			return balance;
+		}
+		// read order matters: merged is published before balance in settle()
+		return balance + this.deposits.sum() - this.merged;
+	}
+
+	public boolean isStriped() {
+		return this.deposits != null;
+	}
+
+	/**
+	 * Gets if the balance has been loaded from storage.
+	 *
+	 * @return true if loaded
+	 */
+	public boolean isLoaded() {
+		return this.loaded;
+	}
+
+	/**
+	 * Gets if the balance has been changed since the account was created.
+	 * Must only be called from within the account's mailbox.
+	 *
+	 * @return true if changed
+	 */
+	boolean isWritten() {
+		return this.written || (this.deposits != null && this.deposits.sum() != 0);
+	}
+
+	/**
+	 * Sets the stored balance of an account which has not been changed.
+	 * Must only be called from within the account's mailbox.
+	 *
+	 * @param balance the stored balance
+	 */
+	void load(long balance) {
+		this.balance = balance;
+		this.loaded = true;
+	}
+
+	AccountMailbox getMailbox() {
+		return this.mailbox;
+	}
+
+	/**
+	 * Adds a deposit to the stripes of this account, from any thread.
+	 *
+	 * @param amount the amount
+	 */
+	void addStriped(long amount) {
+		this.deposits.add(amount);
+	}
+
+	/**
+	 * Merges striped deposits into the balance and returns it. Must only be
+	 * called from within the account's mailbox.
+	 *
+	 * @return the settled balance
+	 */
+	long settle() {
+		if (this.deposits != null) {
+			long total = this.deposits.sum();
+			long delta = total - this.merged;
+			if (delta != 0) {
+				long balance = Math.addExact(this.balance, delta);
+				this.merged = total;
+				this.balance = balance;
+			}
+		}
+		return this.balance;
+	}
+
+	void setBalance(long balance) {
+		this.balance = balance;
+		this.written = true;
+	}
+
+}
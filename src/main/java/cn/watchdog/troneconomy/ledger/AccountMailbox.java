@@ -0,0 +1,119 @@
+package cn.watchdog.troneconomy.ledger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single writer mailbox for one account.
+ *
+ * <p>Messages are appended to a lock free queue and drained by whichever
+ * thread wins the CAS on {@link #scheduled}, so at most one worker touches
+ * the account at a time and mutations are applied in submission order.
+ * Contention is limited to the account itself; a busy mailbox never holds
+ * up the mailboxes of other accounts.</p>
+ */
+final class AccountMailbox implements Runnable {
+	/**
+	 * The maximum number of messages processed before the worker is handed
+	 * back to the pool, so a hot account cannot monopolise a worker.
+	 */
+	private static final int THROUGHPUT = 64;
+
+	private static final int NOT_HELD = 0;
+	/** suspended by the running message, the drain has not returned yet */
+	private static final int HELD = 1;
+	/** suspended, and the drain has returned without releasing ownership */
+	private static final int PARKED = 2;
+	/** resumed before the suspending drain returned, it carries on draining */
+	private static final int RELEASED = 3;
+
+	private final Executor executor;
+	private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	/**
+	 * Hand-off state between {@link #suspend()}, {@link #resume()} and the
+	 * draining thread, see the state constants above.
+	 */
+	private final AtomicInteger hold = new AtomicInteger(NOT_HELD);
+
+	AccountMailbox(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Enqueues a message.
+	 *
+	 * @param message the message
+	 */
+	void post(Runnable message) {
+		this.queue.offer(message);
+		trySchedule();
+	}
+
+	/**
+	 * Keeps ownership of this mailbox after the current message returns,
+	 * without processing any further messages, until {@link #resume()} is
+	 * called. Must only be called from within a message of this mailbox.
+	 */
+	void suspend() {
+		this.hold.set(HELD);
+	}
+
+	/**
+	 * Releases a mailbox previously held with {@link #suspend()}.
+	 */
+	void resume() {
+		if (this.hold.compareAndSet(HELD, RELEASED)) {
+			// the suspending drain is still running and will continue itself
+			return;
+		}
+		this.hold.set(NOT_HELD);
+		execute();
+	}
+
+	private void trySchedule() {
+		if (!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+			execute();
+		}
+	}
+
+	private void execute() {
+		try {
+			this.executor.execute(this);
+		} catch (RuntimeException e) {
+			// nothing is draining, let the next post try again
+			this.scheduled.set(false);
+			throw e;
+		}
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < THROUGHPUT; i++) {
+			Runnable message = this.queue.poll();
+			if (message == null) {
+				break;
+			}
+			try {
+				message.run();
+			} catch (Throwable e) {
+				// messages handle their own failures, one which does not must not stall the account
+				e.printStackTrace();
+			}
+			if (this.hold.get() != NOT_HELD) {
+				if (this.hold.compareAndSet(HELD, PARKED)) {
+					// still owned, resume() will continue the drain
+					return;
+				}
+				this.hold.set(NOT_HELD);
+			}
+		}
+
+		this.scheduled.set(false);
+		trySchedule();
+	}
+
+}
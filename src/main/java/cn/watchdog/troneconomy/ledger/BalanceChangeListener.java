@@ -0,0 +1,16 @@
+package cn.watchdog.troneconomy.ledger;
+
+import java.util.UUID;
+
+/**
+ * Notified of every balance change applied by the {@link Ledger}.
+ *
+ * <p>Called from the thread which applied the change, so implementations
+ * must be thread safe and must not block.</p>
+ */
+@FunctionalInterface
+public interface BalanceChangeListener {
+
+	void onBalanceChange(UUID uniqueId, long delta);
+
+}
@@ -0,0 +1,394 @@
+package cn.watchdog.troneconomy.ledger;
+
+import cn.watchdog.troneconomy.transaction.TransactionDeduplicator;
+import cn.watchdog.troneconomy.transaction.TransactionRecord;
+import cn.watchdog.troneconomy.transaction.TransactionResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The in-memory ledger of account balances.
+ *
+ * <p>All mutations of an account are routed through its {@link AccountMailbox},
+ * so no global lock is taken. Transfers hold the mailbox of the account with
+ * the lower id while the mutation runs inside the mailbox of the higher one,
+ * and because every transfer acquires in the same order they cannot
+ * deadlock.</p>
+ *
+ * <p>System accounts which receive a constant stream of deposits (the server
+ * bank, tax or shop accounts) can be marked as striped: deposits into them
+ * bypass the mailbox entirely, and only withdrawals and transfers out of them
+ * are serialised.</p>
+ *
+ * <p>Each mutation can be given the {@link MutationFuture} it completes. If
+ * that future is expired or cancelled first, for example by a caller's
+ * deadline, the mutation is skipped when it reaches the head of the
+ * mailbox, and its transaction id is not consumed. Once the mutation has
+ * started, the future always reports its real outcome.</p>
+ *
+ * <p>Accounts should be loaded with {@link #loadAccount(UUID, long)} before
+ * they are used. An account used first is created empty, and takes the
+ * stored balance when it is loaded, provided it has not been changed in the
+ * meantime.</p>
+ */
+public class Ledger {
+	private final Executor executor;
+	private final TransactionDeduplicator deduplicator;
+	private final Set<UUID> stripedAccounts;
+	private final Map<UUID, Account> accounts = new ConcurrentHashMap<>();
+	private final List<BalanceChangeListener> listeners = new CopyOnWriteArrayList<>();
+	private final List<TransactionListener> transactionListeners = new CopyOnWriteArrayList<>();
+
+	public Ledger(Executor executor, TransactionDeduplicator deduplicator) {
+		this(executor, deduplicator, Collections.emptySet());
+	}
+
+	public Ledger(Executor executor, TransactionDeduplicator deduplicator, Set<UUID> stripedAccounts) {
+		this.executor = executor;
+		this.deduplicator = deduplicator;
+		this.stripedAccounts = stripedAccounts;
+	}
+
+	public void addListener(BalanceChangeListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(BalanceChangeListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	public void addTransactionListener(TransactionListener listener) {
+		this.transactionListeners.add(listener);
+	}
+
+	public void removeTransactionListener(TransactionListener listener) {
+		this.transactionListeners.remove(listener);
+	}
+
+	/**
+	 * Gets an account, creating an empty one if it is not yet known. An
+	 * account created here has not been loaded from storage.
+	 *
+	 * @param uniqueId the account id
+	 * @return the account
+	 */
+	public Account getAccount(UUID uniqueId) {
+		return this.accounts.computeIfAbsent(uniqueId, id -> new Account(id, 0L, this.executor, this.stripedAccounts.contains(id), false));
+	}
+
+	/**
+	 * Gets an account if it is already held in memory. The account may not
+	 * have been loaded from storage yet, see {@link Account#isLoaded()}.
+	 *
+	 * @param uniqueId the account id
+	 * @return the account, or null
+	 */
+	public Account getLoadedAccount(UUID uniqueId) {
+		return this.accounts.get(uniqueId);
+	}
+
+	/**
+	 * Adds an account with a balance loaded from storage. If the account is
+	 * already loaded, the held account is kept, since it may have pending
+	 * changes the stored balance does not reflect.
+	 *
+	 * <p>An account created by {@link #getAccount(UUID)} takes the stored
+	 * balance. If it has been changed since, either the change or the stored
+	 * balance would be lost, so the future fails instead.</p>
+	 *
+	 * @param uniqueId the account id
+	 * @param balance  the stored balance
+	 * @return a future completed with the held account once it is loaded
+	 */
+	public CompletableFuture<Account> loadAccount(UUID uniqueId, long balance) {
+		Account account = this.accounts.computeIfAbsent(uniqueId, id -> new Account(id, balance, this.executor, this.stripedAccounts.contains(id), true));
+		if (account.isLoaded()) {
+			return CompletableFuture.completedFuture(account);
+		}
+
+		CompletableFuture<Account> future = new CompletableFuture<>();
+		account.getMailbox().post(() -> {
+			try {
+				// another load may have got here first
+				if (!account.isLoaded()) {
+					if (account.isWritten()) {
+						throw new IllegalStateException("Account " + uniqueId + " was changed before its stored balance of " +
+								balance + " was loaded");
+					}
+					account.load(balance);
+				}
+				future.complete(account);
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Gets every account held in memory.
+	 *
+	 * @return a live, unmodifiable view of the accounts
+	 */
+	public Collection<Account> getAccounts() {
+		return Collections.unmodifiableCollection(this.accounts.values());
+	}
+
+	/**
+	 * Overwrites the balance of an account to correct drift from storage.
+	 * Listeners are not notified, as this is not a change to persist.
+	 *
+	 * @param uniqueId the account id
+	 * @param expected the balance the account must still hold
+	 * @param balance  the new balance
+	 * @return a future completed with true, or false if the account no longer
+	 * held the expected balance
+	 */
+	public CompletableFuture<Boolean> resetBalance(UUID uniqueId, long expected, long balance) {
+		CompletableFuture<Boolean> future = new CompletableFuture<>();
+		Account account = getAccount(uniqueId);
+		account.getMailbox().post(() -> {
+			try {
+				if (account.settle() != expected) {
+					future.complete(false);
+					return;
+				}
+				account.setBalance(balance);
+				future.complete(true);
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Adds a change which has already been written to storage by other
+	 * means, such as a bulk update. Accounts which are not held are skipped,
+	 * they will be read from storage when loaded. Listeners are not notified,
+	 * as this is not a change to persist.
+	 *
+	 * @param uniqueId the account id
+	 * @param delta    the change, in minor units
+	 */
+	public void adjustBalance(UUID uniqueId, long delta) {
+		Account account = this.accounts.get(uniqueId);
+		if (account == null) {
+			return;
+		}
+		account.getMailbox().post(() -> {
+			try {
+				account.setBalance(Math.addExact(account.settle(), delta));
+			} catch (Throwable e) {
+				// the stored balance is unaffected, the reconciler corrects the held one
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Gets the balance of an account without waiting for pending mutations.
+	 *
+	 * @param uniqueId the account id
+	 * @return the balance, in minor units
+	 */
+	public long getBalance(UUID uniqueId) {
+		Account account = this.accounts.get(uniqueId);
+		return account == null ? 0L : account.getBalance();
+	}
+
+	public CompletableFuture<TransactionResult> deposit(UUID transactionId, UUID uniqueId, long amount) {
+		return deposit(transactionId, uniqueId, amount, new MutationFuture<>());
+	}
+
+	public CompletableFuture<TransactionResult> deposit(UUID transactionId, UUID uniqueId, long amount, MutationFuture<TransactionResult> future) {
+		checkAmount(amount);
+		Account account = getAccount(uniqueId);
+		if (account.isStriped()) {
+			if (!future.start()) {
+				return future;
+			}
+			if (!this.deduplicator.tryAccept(transactionId)) {
+				future.complete(TransactionResult.DUPLICATE);
+				return future;
+			}
+			account.addStriped(amount);
+			notifyListeners(uniqueId, amount);
+			notifyTransaction(transactionId, TransactionRecord.Type.DEPOSIT, null, uniqueId, amount);
+			future.complete(TransactionResult.SUCCESS);
+			return future;
+		}
+
+		account.getMailbox().post(() -> complete(future, transactionId, () -> {
+			account.setBalance(Math.addExact(account.settle(), amount));
+			notifyListeners(uniqueId, amount);
+			notifyTransaction(transactionId, TransactionRecord.Type.DEPOSIT, null, uniqueId, amount);
+			return TransactionResult.SUCCESS;
+		}));
+		return future;
+	}
+
+	public CompletableFuture<TransactionResult> withdraw(UUID transactionId, UUID uniqueId, long amount) {
+		return withdraw(transactionId, uniqueId, amount, new MutationFuture<>());
+	}
+
+	public CompletableFuture<TransactionResult> withdraw(UUID transactionId, UUID uniqueId, long amount, MutationFuture<TransactionResult> future) {
+		checkAmount(amount);
+		Account account = getAccount(uniqueId);
+		account.getMailbox().post(() -> complete(future, transactionId, () -> {
+			long balance = account.settle();
+			if (balance < amount) {
+				return TransactionResult.INSUFFICIENT_FUNDS;
+			}
+			account.setBalance(balance - amount);
+			notifyListeners(uniqueId, -amount);
+			notifyTransaction(transactionId, TransactionRecord.Type.WITHDRAW, uniqueId, null, amount);
+			return TransactionResult.SUCCESS;
+		}));
+		return future;
+	}
+
+	public CompletableFuture<TransactionResult> transfer(UUID transactionId, UUID from, UUID to, long amount) {
+		return transfer(transactionId, from, to, amount, new MutationFuture<>());
+	}
+
+	public CompletableFuture<TransactionResult> transfer(UUID transactionId, UUID from, UUID to, long amount, MutationFuture<TransactionResult> future) {
+		checkAmount(amount);
+		if (from.equals(to)) {
+			throw new IllegalArgumentException("Cannot transfer to the same account");
+		}
+
+		Account source = getAccount(from);
+		Account target = getAccount(to);
+		Account first = from.compareTo(to) < 0 ? source : target;
+		Account second = first == source ? target : source;
+
+		first.getMailbox().post(() -> {
+			if (future.isDone()) {
+				return;
+			}
+			first.getMailbox().suspend();
+			// the first mailbox must be resumed exactly once, whether or not the second message runs
+			AtomicBoolean released = new AtomicBoolean(false);
+			Runnable release = () -> {
+				if (released.compareAndSet(false, true)) {
+					first.getMailbox().resume();
+				}
+			};
+			try {
+				second.getMailbox().post(() -> {
+					try {
+						complete(future, transactionId, () -> {
+							long balance = source.settle();
+							if (balance < amount) {
+								return TransactionResult.INSUFFICIENT_FUNDS;
+							}
+							long credited = Math.addExact(target.settle(), amount);
+							source.setBalance(balance - amount);
+							target.setBalance(credited);
+							notifyListeners(from, -amount);
+							notifyListeners(to, amount);
+							notifyTransaction(transactionId, TransactionRecord.Type.TRANSFER, from, to, amount);
+							return TransactionResult.SUCCESS;
+						});
+					} finally {
+						release.run();
+					}
+				});
+			} catch (Throwable e) {
+				// the message stays queued, but is skipped once it runs because the future is done
+				future.completeExceptionally(e);
+				release.run();
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Merges the striped deposits of every striped account into its balance.
+	 *
+	 * @return a future completed once all merges have been applied
+	 */
+	public CompletableFuture<Void> mergeStriped() {
+		CompletableFuture<?>[] futures = this.accounts.values().stream()
+				.filter(Account::isStriped)
+				.map(account -> {
+					CompletableFuture<Void> future = new CompletableFuture<>();
+					account.getMailbox().post(() -> {
+						try {
+							account.settle();
+							future.complete(null);
+						} catch (Throwable e) {
+							future.completeExceptionally(e);
+						}
+					});
+					return future;
+				})
+				.toArray(CompletableFuture[]::new);
+		return CompletableFuture.allOf(futures);
+	}
+
+	private void notifyListeners(UUID uniqueId, long delta) {
+		for (BalanceChangeListener listener : this.listeners) {
+			try {
+				listener.onBalanceChange(uniqueId, delta);
+			} catch (Throwable e) {
+				// the change has been applied, a failing listener must not report otherwise
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void notifyTransaction(UUID transactionId, TransactionRecord.Type type, UUID source, UUID target, long amount) {
+		if (this.transactionListeners.isEmpty()) {
+			return;
+		}
+		TransactionRecord record = new TransactionRecord(transactionId, type, source, target, amount, System.currentTimeMillis());
+		for (TransactionListener listener : this.transactionListeners) {
+			try {
+				listener.onTransaction(record);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static void checkAmount(long amount) {
+		if (amount <= 0) {
+			throw new IllegalArgumentException("amount must be positive");
+		}
+	}
+
+	private void complete(MutationFuture<TransactionResult> future, UUID transactionId, Mutation mutation) {
+		// expired or cancelled while queued, from here on it no longer can be
+		if (!future.start()) {
+			return;
+		}
+		// checked at the head of the mailbox, so a skipped mutation does not consume its id
+		if (!this.deduplicator.tryAccept(transactionId)) {
+			future.complete(TransactionResult.DUPLICATE);
+			return;
+		}
+		try {
+			future.complete(mutation.apply());
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Mutation {
+		TransactionResult apply();
+	}
+
+}
@@ -0,0 +1,432 @@
+package cn.watchdog.troneconomy.ledger;
+
+import cn.watchdog.scheduler.SchedulerAdapter;
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BucketDigest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically checks the {@link Ledger} against storage for drift, such as
+ * a lost write or a balance edited by hand in the database.
+ *
+ * <p>Accounts are split into buckets by the leading hex digits of their id,
+ * three levels deep. Each pass compares the {@link BucketDigest}s of the
+ * ledger with those computed by storage, and only descends into buckets
+ * whose digests differ, so a pass over an unchanged economy costs a handful
+ * of aggregate queries. Only the accounts of differing leaf buckets are
+ * read.</p>
+ *
+ * <p>Stored accounts which the ledger does not hold cannot drift, they are
+ * read from storage when loaded. They are not loaded by a pass either, as
+ * that would pull the whole table into memory. Instead the digest of those
+ * in each leaf bucket is remembered, and added to the ledger's digests on
+ * later passes, so the buckets can match. The remembered digests are a few
+ * numbers per leaf bucket, and a bucket whose unheld accounts change is
+ * simply read again.</p>
+ *
+ * <p>A balance which differs because its write has not been flushed yet is
+ * not drift. An account is only reported once it has differed by the same
+ * balances in two consecutive passes, so the interval should be longer than
+ * the write-behind interval.</p>
+ */
+public class LedgerReconciler {
+	private static final int LEAF_DEPTH = 3;
+	private static final int MAX_LOGGED_DRIFTS = 20;
+
+	private final TronEconomy plugin;
+	private final Ledger ledger;
+	private final StorageImplementation storage;
+	private final Mode mode;
+
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private volatile SchedulerTask task;
+	private final Set<UUID> uncertain = ConcurrentHashMap.newKeySet();
+
+	// guarded by running
+	private Map<UUID, Drift> suspects = new HashMap<>();
+	// digests of the stored accounts of each leaf bucket which the ledger did not hold, guarded by running
+	private final Map<String, BucketDigest.Builder> unheld = new HashMap<>();
+
+	public LedgerReconciler(TronEconomy plugin, Ledger ledger, StorageImplementation storage, Mode mode) {
+		this.plugin = plugin;
+		this.ledger = ledger;
+		this.storage = storage;
+		this.mode = mode;
+	}
+
+	/**
+	 * Starts reconciling on the I/O executor.
+	 *
+	 * @param interval the time between passes
+	 * @param unit     the unit of interval
+	 */
+	public void start(long interval, TimeUnit unit) {
+		if (this.task != null) {
+			throw new IllegalStateException("Already started");
+		}
+		SchedulerAdapter scheduler = this.plugin.getScheduler();
+		this.task = scheduler.asyncRepeating(() -> scheduler.executeIo(this::runPass), interval, unit);
+	}
+
+	public void stop() {
+		SchedulerTask task = this.task;
+		if (task != null) {
+			task.cancel();
+			this.task = null;
+		}
+	}
+
+	/**
+	 * Marks accounts whose stored balance is unknown, for example after a
+	 * write which failed part way. They are compared with storage on every
+	 * pass, whatever the digests of their buckets, until they match.
+	 *
+	 * @param uniqueIds the account ids
+	 */
+	public void markUncertain(Collection<UUID> uniqueIds) {
+		this.uncertain.addAll(uniqueIds);
+	}
+
+	private void runPass() {
+		try {
+			Result result = reconcile();
+			if (result != null && result.drifted > 0) {
+				this.plugin.getLogger().warning("Reconciliation found " + result.drifted + " drifted account(s), " +
+						result.repaired + " repaired: " + result);
+			}
+		} catch (Exception e) {
+			this.plugin.getLogger().warning("Unable to reconcile the ledger with " + this.storage.getImplementationName());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs one pass. Blocks, so should be called from an I/O thread.
+	 *
+	 * @return the result, or null if a pass was already running
+	 * @throws Exception if storage could not be read
+	 */
+	public Result reconcile() throws Exception {
+		// a slow pass must not overlap with the next one
+		if (!this.running.compareAndSet(false, true)) {
+			return null;
+		}
+		try {
+			Pass pass = new Pass();
+			pass.compare("");
+			pass.compareUncertain();
+			return finish(pass);
+		} finally {
+			this.running.set(false);
+		}
+	}
+
+	private Result finish(Pass pass) throws Exception {
+		List<Drift> confirmed = new ArrayList<>();
+		for (Drift drift : pass.suspects.values()) {
+			if (drift.equals(this.suspects.get(drift.uniqueId))) {
+				confirmed.add(drift);
+			}
+		}
+
+		int logged = 0;
+		for (Drift drift : confirmed) {
+			if (logged++ < MAX_LOGGED_DRIFTS) {
+				this.plugin.getLogger().warning("Account " + drift.uniqueId + " has drifted: ledger " +
+						drift.ledgerBalance + ", storage " + drift.storedBalance);
+			}
+		}
+
+		int repaired = 0;
+		switch (this.mode) {
+			case REPAIR_LEDGER:
+				for (Drift drift : confirmed) {
+					if (this.ledger.resetBalance(drift.uniqueId, drift.ledgerBalance, drift.storedBalance).join()) {
+						pass.suspects.remove(drift.uniqueId);
+						repaired++;
+					}
+				}
+				break;
+			case REPAIR_STORAGE:
+				if (confirmed.isEmpty()) {
+					break;
+				}
+				List<BalanceChange> changes = new ArrayList<>(confirmed.size());
+				for (Drift drift : confirmed) {
+					changes.add(new BalanceChange(drift.uniqueId, drift.ledgerBalance - drift.storedBalance));
+				}
+				Set<UUID> rejected = new HashSet<>();
+				for (BalanceChange change : this.storage.applyChanges(changes)) {
+					rejected.add(change.getUniqueId());
+				}
+				for (Drift drift : confirmed) {
+					if (!rejected.contains(drift.uniqueId)) {
+						pass.suspects.remove(drift.uniqueId);
+						repaired++;
+					}
+				}
+				break;
+			default:
+				break;
+		}
+
+		this.suspects = pass.suspects;
+		return new Result(pass.bucketsCompared, pass.accountsCompared, pass.accountsNotHeld,
+				pass.suspects.size(), confirmed.size(), repaired);
+	}
+
+	/**
+	 * The state of one pass.
+	 */
+	private final class Pass {
+		// digests of the ledger at each depth, from a snapshot taken at the start of the pass
+		private final List<Map<String, BucketDigest.Builder>> digests = new ArrayList<>(LEAF_DEPTH);
+		private final Map<String, List<Account>> leaves = new HashMap<>();
+		private final Map<UUID, Drift> suspects = new HashMap<>();
+
+		private int bucketsCompared = 0;
+		private int accountsCompared = 0;
+		private int accountsNotHeld = 0;
+
+		Pass() {
+			for (int depth = 1; depth <= LEAF_DEPTH; depth++) {
+				this.digests.add(new HashMap<>());
+			}
+			for (Account account : LedgerReconciler.this.ledger.getAccounts()) {
+				if (!account.isLoaded()) {
+					// its stored balance is not known yet, so it cannot be compared
+					continue;
+				}
+				String id = account.getUniqueId().toString();
+				long balance = account.getBalance();
+				for (int depth = 1; depth <= LEAF_DEPTH; depth++) {
+					this.digests.get(depth - 1).computeIfAbsent(id.substring(0, depth), b -> new BucketDigest.Builder())
+							.add(account.getUniqueId(), balance);
+				}
+				this.leaves.computeIfAbsent(id.substring(0, LEAF_DEPTH), b -> new ArrayList<>()).add(account);
+			}
+			for (Map.Entry<String, BucketDigest.Builder> entry : LedgerReconciler.this.unheld.entrySet()) {
+				for (int depth = 1; depth <= LEAF_DEPTH; depth++) {
+					this.digests.get(depth - 1).computeIfAbsent(entry.getKey().substring(0, depth), b -> new BucketDigest.Builder())
+							.add(entry.getValue());
+				}
+			}
+		}
+
+		void compare(String prefix) throws Exception {
+			Map<String, BucketDigest.Builder> ledgerDigests = this.digests.get(prefix.length());
+			Set<String> children = new HashSet<>();
+			Map<String, BucketDigest> storedDigests = new HashMap<>();
+			for (BucketDigest digest : LedgerReconciler.this.storage.loadDigests(prefix)) {
+				storedDigests.put(digest.getPrefix(), digest);
+				children.add(digest.getPrefix());
+			}
+			for (String bucket : ledgerDigests.keySet()) {
+				if (bucket.startsWith(prefix)) {
+					children.add(bucket);
+				}
+			}
+
+			for (String child : children) {
+				this.bucketsCompared++;
+				// a missing digest is an empty bucket
+				BucketDigest ledgerDigest = ledgerDigests.getOrDefault(child, new BucketDigest.Builder()).build(child);
+				BucketDigest storedDigest = storedDigests.getOrDefault(child, new BucketDigest.Builder().build(child));
+				if (ledgerDigest.matches(storedDigest)) {
+					continue;
+				}
+				if (child.length() < LEAF_DEPTH) {
+					compare(child);
+				} else {
+					compareLeaf(child);
+				}
+			}
+		}
+
+		private void compareLeaf(String prefix) throws Exception {
+			Map<UUID, Long> stored = new HashMap<>();
+			for (AccountBalance balance : LedgerReconciler.this.storage.loadBucket(prefix)) {
+				stored.put(balance.getUniqueId(), balance.getBalance());
+			}
+
+			List<Account> accounts = this.leaves.getOrDefault(prefix, Collections.emptyList());
+			for (Account account : accounts) {
+				Long storedBalance = stored.remove(account.getUniqueId());
+				compareAccount(account, storedBalance == null ? 0L : storedBalance);
+			}
+			BucketDigest.Builder unheld = new BucketDigest.Builder();
+			for (Map.Entry<UUID, Long> entry : stored.entrySet()) {
+				Account account = LedgerReconciler.this.ledger.getLoadedAccount(entry.getKey());
+				if (account == null || !account.isLoaded()) {
+					unheld.add(entry.getKey(), entry.getValue());
+					this.accountsNotHeld++;
+				} else {
+					// loaded since the pass started
+					compareAccount(account, entry.getValue());
+				}
+			}
+			if (unheld.isEmpty()) {
+				LedgerReconciler.this.unheld.remove(prefix);
+			} else {
+				LedgerReconciler.this.unheld.put(prefix, unheld);
+			}
+		}
+
+		void compareUncertain() throws Exception {
+			for (UUID uniqueId : LedgerReconciler.this.uncertain) {
+				Account account = LedgerReconciler.this.ledger.getLoadedAccount(uniqueId);
+				if (account == null || !account.isLoaded()) {
+					// read from storage when it is loaded, so there is nothing to drift from
+					LedgerReconciler.this.uncertain.remove(uniqueId);
+					continue;
+				}
+				if (!this.suspects.containsKey(uniqueId)) {
+					compareAccount(account, LedgerReconciler.this.storage.loadBalance(uniqueId).orElse(0L));
+				}
+				if (!this.suspects.containsKey(uniqueId)) {
+					LedgerReconciler.this.uncertain.remove(uniqueId);
+				}
+			}
+		}
+
+		private void compareAccount(Account account, long storedBalance) {
+			this.accountsCompared++;
+			long balance = account.getBalance();
+			if (balance != storedBalance) {
+				this.suspects.put(account.getUniqueId(), new Drift(account.getUniqueId(), balance, storedBalance));
+			}
+		}
+	}
+
+	private static final class Drift {
+		private final UUID uniqueId;
+		private final long ledgerBalance;
+		private final long storedBalance;
+
+		Drift(UUID uniqueId, long ledgerBalance, long storedBalance) {
+			this.uniqueId = uniqueId;
+			this.ledgerBalance = ledgerBalance;
+			this.storedBalance = storedBalance;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Drift)) {
+				return false;
+			}
+			Drift other = (Drift) o;
+			return this.uniqueId.equals(other.uniqueId) && this.ledgerBalance == other.ledgerBalance &&
+					this.storedBalance == other.storedBalance;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.uniqueId, this.ledgerBalance, this.storedBalance);
+		}
+	}
+
+	/**
+	 * What to do with an account which has drifted.
+	 */
+	public enum Mode {
+		/**
+		 * Only log the account.
+		 */
+		REPORT,
+		/**
+		 * Trust storage, and overwrite the ledger balance. Use this when
+		 * storage is shared by several servers or edited by hand.
+		 */
+		REPAIR_LEDGER,
+		/**
+		 * Trust the ledger, and write the difference to storage. Only safe
+		 * when this server is the only writer.
+		 */
+		REPAIR_STORAGE
+	}
+
+	/**
+	 * The outcome of a pass.
+	 */
+	public static final class Result {
+		private final int bucketsCompared;
+		private final int accountsCompared;
+		private final int accountsNotHeld;
+		private final int suspected;
+		private final int drifted;
+		private final int repaired;
+
+		Result(int bucketsCompared, int accountsCompared, int accountsNotHeld, int suspected, int drifted, int repaired) {
+			this.bucketsCompared = bucketsCompared;
+			this.accountsCompared = accountsCompared;
+			this.accountsNotHeld = accountsNotHeld;
+			this.suspected = suspected;
+			this.drifted = drifted;
+			this.repaired = repaired;
+		}
+
+		public int getBucketsCompared() {
+			return this.bucketsCompared;
+		}
+
+		public int getAccountsCompared() {
+			return this.accountsCompared;
+		}
+
+		/**
+		 * Gets the number of stored accounts read which the ledger does not
+		 * hold, and so were not compared.
+		 *
+		 * @return the number of accounts
+		 */
+		public int getAccountsNotHeld() {
+			return this.accountsNotHeld;
+		}
+
+		/**
+		 * Gets the number of accounts which differ from storage, and will be
+		 * reported if they still differ by the same balances next pass.
+		 *
+		 * @return the number of accounts
+		 */
+		public int getSuspected() {
+			return this.suspected;
+		}
+
+		public int getDrifted() {
+			return this.drifted;
+		}
+
+		public int getRepaired() {
+			return this.repaired;
+		}
+
+		@Override
+		public String toString() {
+			return "Result(bucketsCompared=" + this.bucketsCompared + ", accountsCompared=" + this.accountsCompared +
+					", accountsNotHeld=" + this.accountsNotHeld + ", suspected=" + this.suspected +
+					", drifted=" + this.drifted + ", repaired=" + this.repaired + ")";
+		}
+	}
+
+}
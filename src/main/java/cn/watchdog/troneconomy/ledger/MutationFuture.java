@@ -0,0 +1,46 @@
+package cn.watchdog.troneconomy.ledger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The future of a {@link Ledger} mutation.
+ *
+ * <p>Until the mutation starts, the future can be expired or cancelled, and
+ * the mutation is then skipped. Once it has started it can no longer be, so
+ * a caller's deadline never reports a failure for a change which has been
+ * applied.</p>
+ *
+ * @param <T> the result type
+ */
+public class MutationFuture<T> extends CompletableFuture<T> {
+	private final AtomicBoolean started = new AtomicBoolean(false);
+
+	/**
+	 * Fails the future, unless the mutation has already started.
+	 *
+	 * @param cause the cause
+	 * @return true if the mutation will not run
+	 */
+	public boolean expire(Throwable cause) {
+		return this.started.compareAndSet(false, true) && completeExceptionally(cause);
+	}
+
+	/**
+	 * Cancels the future, unless the mutation has already started.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return this.started.compareAndSet(false, true) && super.cancel(mayInterruptIfRunning);
+	}
+
+	/**
+	 * Marks the mutation as started. Must be called before it is applied.
+	 *
+	 * @return false if the future has been completed, and the mutation must be skipped
+	 */
+	boolean start() {
+		return this.started.compareAndSet(false, true) && !isDone();
+	}
+
+}
@@ -0,0 +1,18 @@
+package cn.watchdog.troneconomy.ledger;
+
+import cn.watchdog.troneconomy.transaction.TransactionRecord;
+
+/**
+ * Notified of every transaction applied by the {@link Ledger}, after its
+ * {@link BalanceChangeListener}s.
+ *
+ * <p>Called from the thread which applied the transaction, so
+ * implementations must be thread safe and must not block. The transaction
+ * has been applied in memory only, it may not have reached storage yet.</p>
+ */
+@FunctionalInterface
+public interface TransactionListener {
+
+	void onTransaction(TransactionRecord record);
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 内存账本的包。
+ */
+package cn.watchdog.troneconomy.ledger;
@@ -0,0 +1,19 @@
+package cn.watchdog.troneconomy.messaging;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Notified of invalidations sent by other servers.
+ */
+@FunctionalInterface
+public interface InvalidationListener {
+
+	/**
+	 * Called from an I/O thread.
+	 *
+	 * @param uniqueIds the ids of the accounts whose stored balances have changed
+	 */
+	void onInvalidation(Collection<UUID> uniqueIds);
+
+}
@@ -0,0 +1,21 @@
+package cn.watchdog.troneconomy.messaging;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Sends messages to the other servers of a network.
+ */
+public interface Messenger {
+
+	/**
+	 * Tells the other servers that the stored balances of some accounts have
+	 * changed, so they should drop any copies they hold. Does not block.
+	 *
+	 * @param uniqueIds the account ids
+	 */
+	void sendInvalidation(Collection<UUID> uniqueIds);
+
+	void close();
+
+}
@@ -0,0 +1,359 @@
+package cn.watchdog.troneconomy.messaging;
+
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.implementation.sql.connection.ConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Messenger} for networks without Redis, which passes messages
+ * through a small table in the shared database.
+ *
+ * <p>Each server polls for the ids of rows above the last one it has seen,
+ * a range scan of the primary key which costs next to nothing when there is
+ * nothing new, and only reads the messages of ids it has not seen yet. Polls
+ * start at a sub-second interval and back off while no messages arrive. Rows
+ * are deleted once they are older than any server could still need, a chunk
+ * of ids at a time.</p>
+ */
+public class SqlMessenger implements Messenger {
+	private static final long MIN_POLL_MILLIS = 250;
+	private static final long MAX_POLL_MILLIS = 4_000;
+	private static final int IDLE_POLLS_BEFORE_BACKOFF = 8;
+	private static final int IDS_PER_MESSAGE = 100;
+	private static final long MESSAGE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final int CLEANUP_CHUNK = 1_000;
+	/**
+	 * Ids are assigned on insert but become visible on commit, so a row can
+	 * appear below the highest id already seen. Polls look back this many ids
+	 * to pick those up.
+	 */
+	private static final long REORDER_WINDOW = 64;
+
+	private static final String MESSAGE_INSERT = "INSERT INTO {prefix}messages (time, server, msg) VALUES(?, ?, ?)";
+	private static final String MESSAGE_SELECT_IDS = "SELECT id FROM {prefix}messages WHERE id > ? ORDER BY id";
+	private static final String MESSAGE_SELECT = "SELECT id, server, msg FROM {prefix}messages WHERE id >= ? AND id <= ? ORDER BY id";
+	private static final String MESSAGE_MAX_ID = "SELECT MAX(id) FROM {prefix}messages";
+	private static final String MESSAGE_EXPIRED_BOUNDS = "SELECT MIN(id), MAX(id) FROM {prefix}messages WHERE time < ?";
+	private static final String MESSAGE_DELETE_RANGE = "DELETE FROM {prefix}messages WHERE id >= ? AND id <= ? AND time < ?";
+
+	private final TronEconomy plugin;
+	private final ConnectionFactory connectionFactory;
+	private final InvalidationListener listener;
+	private final String serverId = UUID.randomUUID().toString();
+
+	private final Queue<UUID> outbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean sending = new AtomicBoolean(false);
+
+	// only touched by the poller
+	private long lastSeen = 0;
+	private final NavigableSet<Long> recent = new TreeSet<>();
+	private long pollMillis = MIN_POLL_MILLIS;
+	private int idlePolls = 0;
+	private long lastCleanup = 0;
+
+	private volatile boolean active = false;
+	private volatile boolean sentSinceLastPoll = false;
+	private volatile SchedulerTask pollTask;
+
+	/**
+	 * Creates a messenger.
+	 *
+	 * @param plugin            the plugin
+	 * @param connectionFactory the connection factory, which must already be initialised and its schema
+	 *                          {@link cn.watchdog.troneconomy.storage.implementation.sql.schema.SchemaMigrator migrated}
+	 * @param listener          the listener for invalidations from other servers
+	 */
+	public SqlMessenger(TronEconomy plugin, ConnectionFactory connectionFactory, InvalidationListener listener) {
+		this.plugin = plugin;
+		this.connectionFactory = connectionFactory;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts polling. Only messages sent from now on are received.
+	 *
+	 * @throws SQLException if the table could not be read
+	 */
+	public void init() throws SQLException {
+		try (Connection c = this.connectionFactory.getConnection()) {
+			this.lastSeen = maxId(c);
+		}
+		this.active = true;
+		schedulePoll();
+	}
+
+	@Override
+	public void sendInvalidation(Collection<UUID> uniqueIds) {
+		if (uniqueIds.isEmpty()) {
+			return;
+		}
+		this.outbox.addAll(uniqueIds);
+		// other servers are likely to answer soon
+		this.sentSinceLastPoll = true;
+		if (!this.sending.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			this.plugin.getScheduler().executeIo(this::flushOutbox);
+		} catch (RejectedExecutionException e) {
+			this.sending.set(false);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.active = false;
+		SchedulerTask task = this.pollTask;
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	private void flushOutbox() {
+		try {
+			List<String> messages = new ArrayList<>();
+			Set<UUID> ids = new LinkedHashSet<>();
+			UUID uniqueId;
+			while ((uniqueId = this.outbox.poll()) != null) {
+				ids.add(uniqueId);
+				if (ids.size() == IDS_PER_MESSAGE) {
+					messages.add(encode(ids));
+					ids.clear();
+				}
+			}
+			if (!ids.isEmpty()) {
+				messages.add(encode(ids));
+			}
+			if (!messages.isEmpty()) {
+				insert(messages);
+			}
+		} catch (SQLException e) {
+			// other servers fall back to the expiry of their caches
+			this.plugin.getLogger().warning("Unable to send invalidation messages");
+			e.printStackTrace();
+		} finally {
+			this.sending.set(false);
+		}
+
+		if (!this.outbox.isEmpty() && this.sending.compareAndSet(false, true)) {
+			// queued after the last poll of the outbox, while still marked as sending
+			try {
+				this.plugin.getScheduler().executeIo(this::flushOutbox);
+			} catch (RejectedExecutionException e) {
+				// left in the outbox for the next send
+				this.sending.set(false);
+			}
+		}
+	}
+
+	private void insert(List<String> messages) throws SQLException {
+		long now = System.currentTimeMillis();
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(MESSAGE_INSERT))) {
+				for (String message : messages) {
+					ps.setLong(1, now);
+					ps.setString(2, this.serverId);
+					ps.setString(3, message);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+		}
+	}
+
+	private void schedulePoll() {
+		if (this.active) {
+			this.pollTask = this.plugin.getScheduler().asyncLater(this::submitPoll, this.pollMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void submitPoll() {
+		try {
+			this.plugin.getScheduler().executeIo(this::poll);
+		} catch (RejectedExecutionException e) {
+			// the io pool is saturated, so try again later rather than ending the poll chain
+			this.pollMillis = MAX_POLL_MILLIS;
+			schedulePoll();
+		}
+	}
+
+	private void poll() {
+		if (!this.active) {
+			return;
+		}
+		try {
+			boolean received = read();
+			if (received || this.sentSinceLastPoll) {
+				this.idlePolls = 0;
+				this.pollMillis = MIN_POLL_MILLIS;
+			} else if (++this.idlePolls >= IDLE_POLLS_BEFORE_BACKOFF) {
+				this.pollMillis = Math.min(MAX_POLL_MILLIS, this.pollMillis * 2);
+			}
+			this.sentSinceLastPoll = false;
+
+			long now = System.currentTimeMillis();
+			if (now - this.lastCleanup >= CLEANUP_INTERVAL_MILLIS) {
+				this.lastCleanup = now;
+				cleanup(now - MESSAGE_EXPIRY_MILLIS);
+			}
+		} catch (SQLException e) {
+			this.pollMillis = MAX_POLL_MILLIS;
+			this.plugin.getLogger().warning("Unable to poll for invalidation messages");
+			e.printStackTrace();
+		} finally {
+			schedulePoll();
+		}
+	}
+
+	/**
+	 * Reads new messages and passes them to the listener.
+	 *
+	 * @return true if any messages from other servers were received
+	 */
+	private boolean read() throws SQLException {
+		Set<UUID> invalidated = new LinkedHashSet<>();
+		boolean received = false;
+		try (Connection c = this.connectionFactory.getConnection()) {
+			// only the ids of the look-back range, so seen messages are not read again
+			NavigableSet<Long> unseen = new TreeSet<>();
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(MESSAGE_SELECT_IDS))) {
+				ps.setLong(1, Math.max(0, this.lastSeen - REORDER_WINDOW));
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						long id = rs.getLong(1);
+						if (id > this.lastSeen - REORDER_WINDOW && !this.recent.contains(id)) {
+							unseen.add(id);
+						}
+					}
+				}
+			}
+
+			if (!unseen.isEmpty()) {
+				try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(MESSAGE_SELECT))) {
+					ps.setLong(1, unseen.first());
+					ps.setLong(2, unseen.last());
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next()) {
+							long id = rs.getLong(1);
+							// the range may span seen ids, and rows committed since the first query
+							if (id <= this.lastSeen - REORDER_WINDOW || !this.recent.add(id)) {
+								continue;
+							}
+							this.lastSeen = Math.max(this.lastSeen, id);
+							if (this.serverId.equals(rs.getString(2))) {
+								continue;
+							}
+							received = true;
+							decode(rs.getString(3), invalidated);
+						}
+					}
+				}
+			}
+		}
+		// ids at or below the window are never read again
+		this.recent.headSet(this.lastSeen - REORDER_WINDOW, true).clear();
+
+		if (!invalidated.isEmpty()) {
+			try {
+				this.listener.onInvalidation(invalidated);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+		return received;
+	}
+
+	/**
+	 * Gets the highest id in the table.
+	 *
+	 * @return the id, or 0 if the table is empty
+	 */
+	private long maxId(Connection c) throws SQLException {
+		try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(MESSAGE_MAX_ID))) {
+			try (ResultSet rs = ps.executeQuery()) {
+				// MAX of no rows is NULL, which reads as 0
+				return rs.next() ? rs.getLong(1) : 0;
+			}
+		}
+	}
+
+	private void cleanup(long before) throws SQLException {
+		try (Connection c = this.connectionFactory.getConnection()) {
+			if (maxId(c) < this.lastSeen) {
+				// MySQL and MariaDB may restart AUTO_INCREMENT below the ids already seen once
+				// cleanup has emptied the table, so read from the start again. Invalidating an
+				// account twice is harmless.
+				this.lastSeen = 0;
+				this.recent.clear();
+			}
+
+			long min;
+			long max;
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(MESSAGE_EXPIRED_BOUNDS))) {
+				ps.setLong(1, before);
+				try (ResultSet rs = ps.executeQuery()) {
+					if (!rs.next()) {
+						return;
+					}
+					min = rs.getLong(1);
+					if (rs.wasNull()) {
+						return;
+					}
+					max = rs.getLong(2);
+				}
+			}
+
+			// short statements, so cleanup never holds locks for long
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(MESSAGE_DELETE_RANGE))) {
+				for (long from = min; from <= max; from += CLEANUP_CHUNK) {
+					ps.setLong(1, from);
+					ps.setLong(2, Math.min(max, from + CLEANUP_CHUNK - 1));
+					ps.setLong(3, before);
+					ps.executeUpdate();
+				}
+			}
+		}
+	}
+
+	private static String encode(Collection<UUID> uniqueIds) {
+		StringBuilder message = new StringBuilder(uniqueIds.size() * 37);
+		for (UUID uniqueId : uniqueIds) {
+			if (message.length() != 0) {
+				message.append(',');
+			}
+			message.append(uniqueId);
+		}
+		return message.toString();
+	}
+
+	private void decode(String message, Collection<UUID> into) {
+		for (String part : message.split(",")) {
+			try {
+				into.add(UUID.fromString(part));
+			} catch (IllegalArgumentException e) {
+				this.plugin.getLogger().warning("Skipping malformed invalidation message: " + message);
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 跨服务器消息的包。
+ */
+package cn.watchdog.troneconomy.messaging;
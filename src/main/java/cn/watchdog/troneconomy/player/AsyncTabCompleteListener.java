@@ -0,0 +1,80 @@
+package cn.watchdog.troneconomy.player;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Completes player names for the economy commands from the
+ * {@link PlayerNameIndex}, off the main thread.
+ *
+ * <p>Only registered on Paper, which fires {@link AsyncTabCompleteEvent}.</p>
+ */
+public class AsyncTabCompleteListener implements Listener {
+	private static final int MAX_COMPLETIONS = 50;
+
+	private final PlayerNameIndex index;
+
+	public AsyncTabCompleteListener(PlayerNameIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Gets if {@link AsyncTabCompleteEvent} is available on this server.
+	 *
+	 * @return if the event exists
+	 */
+	public static boolean isSupported() {
+		try {
+			Class.forName("com.destroystokyo.paper.event.server.AsyncTabCompleteEvent");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+	public void onAsyncTabComplete(AsyncTabCompleteEvent e) {
+		String buffer = e.getBuffer();
+		if (!e.isCommand() || !buffer.startsWith("/")) {
+			return;
+		}
+
+		String[] args = buffer.substring(1).split(" ", -1);
+		if (!isPlayerArgument(args)) {
+			return;
+		}
+
+		List<String> completions = this.index.complete(args[args.length - 1], MAX_COMPLETIONS);
+		if (!completions.isEmpty()) {
+			// non-empty completions stop the server from also completing on the main thread
+			e.setCompletions(completions);
+		}
+	}
+
+	/**
+	 * Gets if the last argument being typed is a player name:
+	 * {@code /pay <player>} or {@code /eco give <player>}.
+	 */
+	private static boolean isPlayerArgument(String[] args) {
+		String label = args[0].toLowerCase(Locale.ROOT);
+		int namespace = label.indexOf(':');
+		if (namespace >= 0) {
+			label = label.substring(namespace + 1);
+		}
+
+		switch (label) {
+			case "pay":
+				return args.length == 2;
+			case "eco":
+				return args.length == 3 && args[1].equalsIgnoreCase("give");
+			default:
+				return false;
+		}
+	}
+
+}
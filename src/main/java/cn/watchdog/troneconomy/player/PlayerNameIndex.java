@@ -0,0 +1,260 @@
+package cn.watchdog.troneconomy.player;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.util.RadixTree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of every known player name, for tab completion.
+ *
+ * <p>Names are held lowercased in a {@link RadixTree}, so a prefix lookup
+ * only visits the matching names. The index is kept up to date as players
+ * join, and persisted to a file in the data directory, which is read on the
+ * I/O executor the first time the index is used.</p>
+ */
+public class PlayerNameIndex {
+	private static final String FILE_NAME = "player-names.dat";
+	private static final int FILE_VERSION = 1;
+
+	private final TronEconomy plugin;
+	private final Path file;
+
+	// guarded by lock
+	private final RadixTree<Entry> names = new RadixTree<>();
+	private final Map<UUID, String> byId = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final AtomicBoolean loadStarted = new AtomicBoolean(false);
+	private volatile boolean loaded = false;
+	private volatile boolean dirty = false;
+
+	public PlayerNameIndex(TronEconomy plugin) {
+		this.plugin = plugin;
+		this.file = plugin.getDataDirectory().resolve(FILE_NAME);
+	}
+
+	/**
+	 * Records the current name of a player, replacing any previous one.
+	 *
+	 * @param uniqueId the player id
+	 * @param name     the player name
+	 */
+	public void update(UUID uniqueId, String name) {
+		ensureLoaded();
+		this.lock.writeLock().lock();
+		try {
+			if (put(uniqueId, name, true)) {
+				this.dirty = true;
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the names starting with a prefix, ignoring case. Returns nothing
+	 * until the index has been loaded.
+	 *
+	 * @param prefix the prefix
+	 * @param limit  the maximum number of names
+	 * @return the names, in their original case
+	 */
+	public List<String> complete(String prefix, int limit) {
+		ensureLoaded();
+		List<String> matches = new ArrayList<>(Math.min(limit, 16));
+		this.lock.readLock().lock();
+		try {
+			this.names.forEachWithPrefix(prefix.toLowerCase(Locale.ROOT), limit, (key, entry) -> matches.add(entry.name));
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		return matches;
+	}
+
+	/**
+	 * Looks up the id of a player by name, ignoring case.
+	 *
+	 * @param name the name
+	 * @return the id, or null if the name is not known
+	 */
+	public UUID lookup(String name) {
+		ensureLoaded();
+		this.lock.readLock().lock();
+		try {
+			Entry entry = this.names.get(name.toLowerCase(Locale.ROOT));
+			return entry == null ? null : entry.uniqueId;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.names.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the index to disk if it has changed. Blocks, so should be
+	 * called from an I/O thread or on shutdown. Nothing is written while the
+	 * saved index cannot be loaded.
+	 */
+	public synchronized void save() {
+		if (!this.dirty) {
+			return;
+		}
+		// never replace the file with a partial index
+		if (!this.loaded) {
+			load();
+			if (!this.loaded) {
+				this.plugin.getLogger().warning("Not saving the player name index, as the saved one could not be loaded");
+				return;
+			}
+		}
+
+		List<Entry> entries;
+		this.lock.readLock().lock();
+		try {
+			entries = new ArrayList<>(this.byId.size());
+			for (Map.Entry<UUID, String> entry : this.byId.entrySet()) {
+				entries.add(new Entry(entry.getKey(), entry.getValue()));
+			}
+			this.dirty = false;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+
+		Path temp = this.file.resolveSibling(FILE_NAME + ".tmp");
+		try {
+			Files.createDirectories(this.file.getParent());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(FILE_VERSION);
+				out.writeInt(entries.size());
+				for (Entry entry : entries) {
+					out.writeLong(entry.uniqueId.getMostSignificantBits());
+					out.writeLong(entry.uniqueId.getLeastSignificantBits());
+					out.writeUTF(entry.name);
+				}
+			}
+			Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			this.dirty = true;
+			this.plugin.getLogger().warning("Unable to save the player name index");
+			e.printStackTrace();
+		}
+	}
+
+	private void ensureLoaded() {
+		if (!this.loaded && this.loadStarted.compareAndSet(false, true)) {
+			this.plugin.getScheduler().executeIo(this::load);
+		}
+	}
+
+	/**
+	 * Reads the saved index. If it exists but cannot be read, the index is
+	 * left unloaded, so it is not saved over, and the load is retried by the
+	 * next save.
+	 */
+	private synchronized void load() {
+		if (this.loaded) {
+			return;
+		}
+		this.loadStarted.set(true);
+
+		List<Entry> entries = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported version " + version);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				entries.add(new Entry(new UUID(in.readLong(), in.readLong()), in.readUTF()));
+			}
+		} catch (NoSuchFileException e) {
+			// nothing saved yet
+		} catch (EOFException e) {
+			this.plugin.getLogger().warning("The player name index is truncated, loaded " + entries.size() + " name(s)");
+		} catch (IOException e) {
+			this.plugin.getLogger().warning("Unable to load the player name index");
+			e.printStackTrace();
+			return;
+		}
+
+		this.lock.writeLock().lock();
+		try {
+			for (Entry entry : entries) {
+				// players who joined while loading have the newer name
+				put(entry.uniqueId, entry.name, false);
+			}
+			this.loaded = true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a name. Must hold the write lock.
+	 *
+	 * @return true if the index changed
+	 */
+	private boolean put(UUID uniqueId, String name, boolean replace) {
+		String previous = this.byId.get(uniqueId);
+		if (previous != null && (!replace || previous.equals(name))) {
+			return false;
+		}
+		if (previous != null) {
+			String key = previous.toLowerCase(Locale.ROOT);
+			Entry entry = this.names.get(key);
+			if (entry != null && entry.uniqueId.equals(uniqueId)) {
+				this.names.remove(key);
+			}
+		}
+
+		// names are unique at any one time, so a newer holder of the name replaces an older one
+		Entry displaced = this.names.put(name.toLowerCase(Locale.ROOT), new Entry(uniqueId, name));
+		if (displaced != null && !displaced.uniqueId.equals(uniqueId)) {
+			if (!replace) {
+				// loading an older name which has since been taken
+				this.names.put(name.toLowerCase(Locale.ROOT), displaced);
+				return false;
+			}
+			this.byId.remove(displaced.uniqueId);
+		}
+		this.byId.put(uniqueId, name);
+		return true;
+	}
+
+	private static final class Entry {
+		private final UUID uniqueId;
+		private final String name;
+
+		Entry(UUID uniqueId, String name) {
+			this.uniqueId = uniqueId;
+			this.name = name;
+		}
+	}
+
+}
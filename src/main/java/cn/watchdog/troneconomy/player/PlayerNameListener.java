@@ -0,0 +1,25 @@
+package cn.watchdog.troneconomy.player;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+/**
+ * Keeps the {@link PlayerNameIndex} up to date as players join.
+ */
+public class PlayerNameListener implements Listener {
+	private final PlayerNameIndex index;
+
+	public PlayerNameListener(PlayerNameIndex index) {
+		this.index = index;
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerJoin(PlayerJoinEvent e) {
+		Player player = e.getPlayer();
+		this.index.update(player.getUniqueId(), player.getName());
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 玩家名称索引与补全的包。
+ */
+package cn.watchdog.troneconomy.player;
@@ -9,6 +9,11 @@ public class StorageMetadata {
 	// local
 	private Long sizeBytes;
 
+	// write queue
+	private Integer queuedWrites;
+	private Double writePressure;
+	private Long shedOperations;
+
 	public Boolean connected() {
 		return this.connected;
 	}
@@ -21,6 +26,30 @@ public class StorageMetadata {
 		return this.sizeBytes;
 	}
 
+	public Integer queuedWrites() {
+		return this.queuedWrites;
+	}
+
+	/**
+	 * Gets how full the write queue is, from 0 (empty) to 1 (at its hard
+	 * limit, where non-critical operations are shed).
+	 *
+	 * @return the write pressure
+	 */
+	public Double writePressure() {
+		return this.writePressure;
+	}
+
+	/**
+	 * Gets the number of non-critical operations shed at the hard limit of
+	 * the write queue since startup.
+	 *
+	 * @return the number of shed operations
+	 */
+	public Long shedOperations() {
+		return this.shedOperations;
+	}
+
 	public StorageMetadata connected(boolean connected) {
 		this.connected = connected;
 		return this;
@@ -36,6 +65,21 @@ public class StorageMetadata {
 		return this;
 	}
 
+	public StorageMetadata queuedWrites(int queuedWrites) {
+		this.queuedWrites = queuedWrites;
+		return this;
+	}
+
+	public StorageMetadata writePressure(double writePressure) {
+		this.writePressure = writePressure;
+		return this;
+	}
+
+	public StorageMetadata shedOperations(long shedOperations) {
+		this.shedOperations = shedOperations;
+		return this;
+	}
+
 	public StorageMetadata combine(StorageMetadata other) {
 		if (this.connected == null || (other.connected != null && !other.connected)) {
 			this.connected = other.connected;
@@ -46,6 +90,18 @@ public class StorageMetadata {
 		if (this.sizeBytes == null || (other.sizeBytes != null && other.sizeBytes > this.sizeBytes)) {
 			this.sizeBytes = other.sizeBytes;
 		}
+		if (this.queuedWrites == null || (other.queuedWrites != null && other.queuedWrites > this.queuedWrites)) {
+			this.queuedWrites = other.queuedWrites;
+		}
+		if (this.writePressure == null || (other.writePressure != null && other.writePressure > this.writePressure)) {
+			this.writePressure = other.writePressure;
+		}
+		if (this.shedOperations == null) {
+			this.shedOperations = other.shedOperations;
+		} else if (other.shedOperations != null) {
+			// counts of separate queues add up
+			this.shedOperations += other.shedOperations;
+		}
 		return this;
 	}
 
@@ -21,6 +21,9 @@ public enum StorageType {
 	SQLITE("SQLite", "sqlite"),
 	H2("H2", "h2"),
 
+	// In-memory, for load testing
+	MEMORY("Memory", "memory"),
+
 	// Custom
 	CUSTOM("Custom", "custom");
 
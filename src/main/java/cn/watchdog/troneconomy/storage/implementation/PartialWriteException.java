@@ -0,0 +1,47 @@
+package cn.watchdog.troneconomy.storage.implementation;
+
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception thrown by {@link StorageImplementation#applyChanges(Collection)}
+ * when some changes of a batch, possibly all of them, are known not to have
+ * been applied.
+ *
+ * <p>Unlike any other failure of a write, the outcome is exact: the
+ * unapplied changes can safely be written again, the rejected changes were
+ * refused as they would have been by a successful call, and every other
+ * change of the batch has been applied.</p>
+ */
+public class PartialWriteException extends Exception {
+	private final List<BalanceChange> unapplied;
+	private final List<BalanceChange> rejected;
+
+	public PartialWriteException(String message, List<BalanceChange> unapplied, List<BalanceChange> rejected, Throwable cause) {
+		super(message, cause);
+		this.unapplied = Collections.unmodifiableList(unapplied);
+		this.rejected = Collections.unmodifiableList(rejected);
+	}
+
+	/**
+	 * Gets the changes which were not applied.
+	 *
+	 * @return the unapplied changes
+	 */
+	public List<BalanceChange> getUnapplied() {
+		return this.unapplied;
+	}
+
+	/**
+	 * Gets the changes which were rejected because of the resulting balance.
+	 *
+	 * @return the rejected changes
+	 */
+	public List<BalanceChange> getRejected() {
+		return this.rejected;
+	}
+
+}
@@ -2,6 +2,15 @@ package cn.watchdog.troneconomy.storage.implementation;
 
 import cn.watchdog.troneconomy.TronEconomy;
 import cn.watchdog.troneconomy.storage.StorageMetadata;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+import cn.watchdog.troneconomy.storage.misc.BucketDigest;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
 
 public interface StorageImplementation {
 	TronEconomy getPlugin();
@@ -13,4 +22,84 @@ public interface StorageImplementation {
 	void shutdown();
 
 	StorageMetadata getMeta();
+
+	/**
+	 * Loads the stored balance of an account.
+	 *
+	 * @param uniqueId the account id
+	 * @return the balance, or empty if the account has never been saved
+	 * @throws Exception if the balance could not be loaded
+	 */
+	OptionalLong loadBalance(UUID uniqueId) throws Exception;
+
+	/**
+	 * Loads a chunk of stored balances, for walking every account.
+	 *
+	 * <p>Accounts are returned in an order which is fixed for each
+	 * implementation. Pass the id of the last account of the previous chunk
+	 * to get the next one.</p>
+	 *
+	 * @param after the id to continue after, or null to start at the beginning
+	 * @param limit the maximum number of accounts to return
+	 * @return the balances, fewer than limit once the end is reached
+	 * @throws Exception if the balances could not be loaded
+	 */
+	List<AccountBalance> loadBalances(UUID after, int limit) throws Exception;
+
+	/**
+	 * Visits every stored balance, in no particular order, without holding
+	 * them all in memory. The visitor is called on the calling thread.
+	 *
+	 * <p>A scan which fails part way is not retried, since the visitor would
+	 * see some balances twice.</p>
+	 *
+	 * @param visitor the visitor
+	 * @return the number of balances visited
+	 * @throws Exception if the balances could not be read, or the visitor threw
+	 */
+	long scanBalances(BalanceVisitor visitor) throws Exception;
+
+	/**
+	 * Computes a digest of each bucket of accounts one level beneath a
+	 * prefix. Buckets are named by a prefix of the string form of the
+	 * account id, so the buckets beneath {@code "3f"} are {@code "3f0"} to
+	 * {@code "3ff"}.
+	 *
+	 * @param prefix the parent bucket, or an empty string for the top level
+	 * @return the digests of the buckets holding accounts
+	 * @throws Exception if the digests could not be computed
+	 */
+	List<BucketDigest> loadDigests(String prefix) throws Exception;
+
+	/**
+	 * Loads the stored balances in a bucket of accounts.
+	 *
+	 * @param prefix the bucket
+	 * @return the balances
+	 * @throws Exception if the balances could not be loaded
+	 * @see #loadDigests(String)
+	 */
+	List<AccountBalance> loadBucket(String prefix) throws Exception;
+
+	/**
+	 * Applies a batch of balance changes. Changes for the same account are
+	 * combined, and accounts which do not exist yet are created.
+	 *
+	 * <p>A combined change which would leave an account with a negative
+	 * balance, or one too large for a {@code long}, is not applied and is
+	 * returned instead.</p>
+	 *
+	 * <p>A write can fail after some or all of it has been applied, for
+	 * example when the acknowledgement of a commit is lost, so in general a
+	 * failed batch must not be written again. When the implementation knows
+	 * exactly which changes were not applied, such as when the backend could
+	 * not be reached, it throws a {@link PartialWriteException} listing
+	 * them.</p>
+	 *
+	 * @param changes the changes
+	 * @return the changes which were rejected
+	 * @throws PartialWriteException if some changes are known not to have been applied
+	 * @throws Exception if the changes could not be applied, in which case any part of them may have been
+	 */
+	List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception;
 }
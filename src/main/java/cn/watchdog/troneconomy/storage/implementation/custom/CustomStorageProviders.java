@@ -1,23 +1,153 @@
 package cn.watchdog.troneconomy.storage.implementation.custom;
 
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageType;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.implementation.decorator.AdmissionControlStorage;
+import cn.watchdog.troneconomy.storage.implementation.decorator.CachingStorage;
+import cn.watchdog.troneconomy.storage.implementation.decorator.CircuitBreakerStorage;
+import cn.watchdog.troneconomy.storage.implementation.decorator.MetricsStorage;
+import cn.watchdog.troneconomy.storage.implementation.decorator.RetryingStorage;
+import cn.watchdog.troneconomy.storage.implementation.decorator.WriteBehindStorage;
+import cn.watchdog.troneconomy.storage.implementation.memory.MemoryStorage;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * Hook to allow external code to provide a storage implementation
+ * Hook to allow external code to provide storage implementations, and to
+ * wrap any storage implementation in a chain of named decorators.
+ *
+ * <p>Storage types which need no settings, such as {@link StorageType#MEMORY},
+ * are registered as providers under their identifiers.</p>
  */
 public final class CustomStorageProviders {
-	private static CustomStorageProvider provider = null;
+	/**
+	 * The name used by {@link #register(CustomStorageProvider)}.
+	 */
+	public static final String DEFAULT_PROVIDER = "default";
+
+	private static final Map<String, CustomStorageProvider> PROVIDERS = new ConcurrentHashMap<>();
+	private static final Map<String, StorageDecorator> DECORATORS = new ConcurrentHashMap<>();
+
+	static {
+		for (String identifier : StorageType.MEMORY.getIdentifiers()) {
+			PROVIDERS.put(normalise(identifier), MemoryStorage::new);
+		}
+
+		DECORATORS.put("caching", CachingStorage::new);
+		DECORATORS.put("metrics", MetricsStorage::new);
+		DECORATORS.put("write-behind", WriteBehindStorage::new);
+		DECORATORS.put("retry", RetryingStorage::new);
+		DECORATORS.put("circuit-breaker", CircuitBreakerStorage::new);
+		DECORATORS.put("admission-control", AdmissionControlStorage::new);
+	}
 
 	private CustomStorageProviders() {}
 
 	public static void register(CustomStorageProvider provider) {
-		CustomStorageProviders.provider = provider;
+		register(DEFAULT_PROVIDER, provider);
+	}
+
+	/**
+	 * Registers a named storage provider.
+	 *
+	 * @param name     the name
+	 * @param provider the provider
+	 * @throws IllegalStateException if a provider with the same name is already registered
+	 */
+	public static void register(String name, CustomStorageProvider provider) {
+		if (PROVIDERS.putIfAbsent(normalise(name), provider) != null) {
+			throw new IllegalStateException("Provider " + name + " is already registered.");
+		}
+	}
+
+	public static void unregister(String name) {
+		PROVIDERS.remove(normalise(name));
 	}
 
 	public static CustomStorageProvider getProvider() {
+		return getProvider(DEFAULT_PROVIDER);
+	}
+
+	public static CustomStorageProvider getProvider(String name) {
+		CustomStorageProvider provider = PROVIDERS.get(normalise(name));
 		if (provider == null) {
-			throw new IllegalStateException("Provider not present.");
+			throw new IllegalStateException("Provider " + name + " not present.");
 		}
 
 		return provider;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Registers a named decorator.
+	 *
+	 * @param name      the name
+	 * @param decorator the decorator
+	 * @throws IllegalStateException if a decorator with the same name is already registered
+	 */
+	public static void registerDecorator(String name, StorageDecorator decorator) {
+		if (DECORATORS.putIfAbsent(normalise(name), decorator) != null) {
+			throw new IllegalStateException("Decorator " + name + " is already registered.");
+		}
+	}
+
+	/**
+	 * Wraps a storage implementation in the given decorators. The first
+	 * decorator wraps the storage directly, the last one is outermost.
+	 *
+	 * @param storage    the storage implementation
+	 * @param decorators the decorator names
+	 * @return the decorated storage
+	 * @throws IllegalArgumentException if a decorator is unknown
+	 */
+	public static StorageImplementation decorate(StorageImplementation storage, List<String> decorators) {
+		for (String name : decorators) {
+			StorageDecorator decorator = DECORATORS.get(normalise(name));
+			if (decorator == null) {
+				throw new IllegalArgumentException("Unknown storage decorator: " + name);
+			}
+			storage = decorator.decorate(storage);
+		}
+		return storage;
+	}
+
+	/**
+	 * Creates a decorated storage implementation from a named provider.
+	 *
+	 * @param plugin     the plugin
+	 * @param name       the provider name
+	 * @param decorators the decorator names
+	 * @return the decorated storage
+	 */
+	public static StorageImplementation provide(TronEconomy plugin, String name, List<String> decorators) {
+		return decorate(getProvider(name).provide(plugin), decorators);
+	}
+
+	/**
+	 * Creates a decorated storage implementation of a storage type.
+	 *
+	 * @param plugin     the plugin
+	 * @param type       the storage type
+	 * @param decorators the decorator names
+	 * @return the decorated storage
+	 * @throws IllegalArgumentException if the type needs connection settings
+	 */
+	public static StorageImplementation provide(TronEconomy plugin, StorageType type, List<String> decorators) {
+		switch (type) {
+			case MEMORY:
+				return provide(plugin, type.getIdentifiers().get(0), decorators);
+			case CUSTOM:
+				return provide(plugin, DEFAULT_PROVIDER, decorators);
+			default:
+				throw new IllegalArgumentException("Storage type " + type.getName() + " needs connection settings");
+		}
+	}
+
+	private static String normalise(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+}
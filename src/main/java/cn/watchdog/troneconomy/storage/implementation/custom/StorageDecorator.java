@@ -0,0 +1,13 @@
+package cn.watchdog.troneconomy.storage.implementation.custom;
+
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+
+/**
+ * A layer which wraps a {@link StorageImplementation}
+ */
+@FunctionalInterface
+public interface StorageDecorator {
+
+	StorageImplementation decorate(StorageImplementation delegate);
+
+}
@@ -0,0 +1,439 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.storage.StorageMetadata;
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Acknowledges writes immediately and applies them to the wrapped storage
+ * from a single drainer, bounding the memory held while the backend is slow.
+ *
+ * <p>Up to the high-water mark, changes are queued as they arrive. Past it,
+ * further changes are coalesced per account in place, so however long the
+ * backend stalls the queue grows with the number of accounts touched rather
+ * than the number of changes. Past the hard limit, non-critical work
+ * submitted through {@link #submitNonCritical(Runnable)} is rejected, and
+ * counted as shed in {@link #getMeta()}.</p>
+ *
+ * <p>Batches are written by one writer at a time. The queue is only locked
+ * while a batch is taken from it and while the outcome is merged back, never
+ * during the write itself, so reads of pending balances do not wait for a
+ * slow backend.</p>
+ *
+ * <p>Changes which the backend reports as not applied, through a
+ * {@link PartialWriteException}, are coalesced back into the queue and
+ * retried with exponential backoff. As with {@link WriteBehindStorage}, any
+ * other failure is not retried, since it may have applied part of the
+ * batch: its accounts are passed to the uncertain write handler instead,
+ * and changes rejected by the backend are only logged.</p>
+ */
+public class AdmissionControlStorage extends ForwardingStorage {
+	private static final int DEFAULT_HIGH_WATER_MARK = 10_000;
+	private static final int DEFAULT_HARD_LIMIT = 50_000;
+	private static final int BATCH_SIZE = 1_000;
+	private static final long MIN_BACKOFF_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+	private final int highWaterMark;
+	private final int hardLimit;
+
+	private final Queue<BalanceChange> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private final Map<UUID, Long> coalesced = new ConcurrentHashMap<>();
+	private final AtomicInteger nonCriticalInFlight = new AtomicInteger(0);
+	private final LongAdder shed = new LongAdder();
+
+	// guards taking batches from the queue and the batch being written, notified when a write completes
+	private final Object queueLock = new Object();
+	private List<BalanceChange> inFlight = Collections.emptyList();
+	// incremented whenever a batch is taken from the queue, under the queue lock
+	private volatile long batchesTaken = 0;
+
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	// held while writing to the wrapped storage, so one batch is written at a time
+	private final Object writeLock = new Object();
+	// set before the retry is scheduled, so no drain starts during the backoff
+	private final AtomicBoolean retryPending = new AtomicBoolean(false);
+	private volatile SchedulerTask retryTask;
+	private long backoffMillis = 0;
+	private volatile Consumer<Collection<UUID>> uncertainWriteHandler = null;
+
+	public AdmissionControlStorage(StorageImplementation delegate) {
+		this(delegate, DEFAULT_HIGH_WATER_MARK, DEFAULT_HARD_LIMIT);
+	}
+
+	public AdmissionControlStorage(StorageImplementation delegate, int highWaterMark, int hardLimit) {
+		super(delegate);
+		if (highWaterMark <= 0 || hardLimit < highWaterMark) {
+			throw new IllegalArgumentException("Expected 0 < highWaterMark <= hardLimit, got " + highWaterMark + " and " + hardLimit);
+		}
+		this.highWaterMark = highWaterMark;
+		this.hardLimit = hardLimit;
+	}
+
+	/**
+	 * Gets the number of writes waiting to be applied, counting each
+	 * coalesced account once.
+	 *
+	 * @return the number of queued writes
+	 */
+	public int getQueuedWrites() {
+		return this.queued.get() + this.coalesced.size() + this.nonCriticalInFlight.get();
+	}
+
+	/**
+	 * Gets the number of non-critical operations rejected at the hard limit.
+	 *
+	 * @return the number of shed operations
+	 */
+	public long getShedCount() {
+		return this.shed.sum();
+	}
+
+	/**
+	 * Runs a non-critical operation, such as writing history detail, on the
+	 * I/O executor unless the queue is past its hard limit.
+	 *
+	 * @param task the operation
+	 * @return true if the operation was accepted, false if it was shed
+	 */
+	public boolean submitNonCritical(Runnable task) {
+		if (getQueuedWrites() >= this.hardLimit) {
+			this.shed.increment();
+			return false;
+		}
+		this.nonCriticalInFlight.incrementAndGet();
+		try {
+			getPlugin().getScheduler().executeIo(() -> {
+				try {
+					task.run();
+				} finally {
+					this.nonCriticalInFlight.decrementAndGet();
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			this.nonCriticalInFlight.decrementAndGet();
+			this.shed.increment();
+			return false;
+		}
+	}
+
+	/**
+	 * Sets the handler for accounts whose stored balance is unknown after a
+	 * failed write.
+	 *
+	 * @param handler the handler, or null to only log them
+	 */
+	public void setUncertainWriteHandler(Consumer<Collection<UUID>> handler) {
+		this.uncertainWriteHandler = handler;
+	}
+
+	@Override
+	public StorageMetadata getMeta() {
+		int queuedWrites = getQueuedWrites();
+		return super.getMeta()
+				.queuedWrites(queuedWrites)
+				.writePressure(Math.min(1.0, (double) queuedWrites / this.hardLimit))
+				.shedOperations(getShedCount());
+	}
+
+	@Override
+	public void shutdown() {
+		SchedulerTask retryTask = this.retryTask;
+		if (retryTask != null) {
+			retryTask.cancel();
+		}
+		synchronized (this.writeLock) {
+			while (!isEmpty() && writeNextBatch()) {
+				// keep writing until empty, or the backend fails
+			}
+		}
+		if (!isEmpty()) {
+			getPlugin().getLogger().severe("Shutting down with " + getQueuedWrites() +
+					" write(s) not applied to " + getImplementationName());
+		}
+		super.shutdown();
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		for (int attempt = 0; attempt < 3; attempt++) {
+			long batches;
+			long delta;
+			boolean found;
+			// once the account is not in flight, each of its queued changes is either here or stored
+			synchronized (this.queueLock) {
+				awaitNotInFlight(uniqueId);
+				batches = this.batchesTaken;
+				PendingDelta pending = pendingDelta(uniqueId);
+				delta = pending.delta;
+				found = pending.found;
+			}
+			if (!found) {
+				return this.delegate.loadBalance(uniqueId);
+			}
+			// not under the lock, which would stall taking batches for the whole read
+			OptionalLong stored = this.delegate.loadBalance(uniqueId);
+			if (this.batchesTaken == batches) {
+				return OptionalLong.of(Math.addExact(stored.orElse(0L), delta));
+			}
+			// a batch was taken meanwhile, the read may already include some of the delta
+		}
+
+		// no batch can be taken while the lock is held
+		synchronized (this.queueLock) {
+			awaitNotInFlight(uniqueId);
+			OptionalLong stored = this.delegate.loadBalance(uniqueId);
+			PendingDelta pending = pendingDelta(uniqueId);
+			return pending.found ? OptionalLong.of(Math.addExact(stored.orElse(0L), pending.delta)) : stored;
+		}
+	}
+
+	/**
+	 * Waits until the batch being written does not include an account. Must
+	 * hold the queue lock.
+	 */
+	private void awaitNotInFlight(UUID uniqueId) throws InterruptedException {
+		while (true) {
+			boolean found = false;
+			for (BalanceChange change : this.inFlight) {
+				if (change.getUniqueId().equals(uniqueId)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return;
+			}
+			this.queueLock.wait();
+		}
+	}
+
+	/**
+	 * Sums the queued changes of an account. Must hold the queue lock.
+	 */
+	private PendingDelta pendingDelta(UUID uniqueId) {
+		PendingDelta pending = new PendingDelta();
+		for (BalanceChange change : this.queue) {
+			if (change.getUniqueId().equals(uniqueId)) {
+				pending.delta = Math.addExact(pending.delta, change.getDelta());
+				pending.found = true;
+			}
+		}
+		Long coalesced = this.coalesced.get(uniqueId);
+		if (coalesced != null) {
+			pending.delta = Math.addExact(pending.delta, coalesced);
+			pending.found = true;
+		}
+		return pending;
+	}
+
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws Exception {
+		// write out what is queued, so a full walk sees every account
+		synchronized (this.writeLock) {
+			while (!isEmpty() && writeNextBatch()) {
+				// keep writing until empty, or the backend fails
+			}
+			return this.delegate.loadBalances(after, limit);
+		}
+	}
+
+	@Override
+	public long scanBalances(BalanceVisitor visitor) throws Exception {
+		synchronized (this.writeLock) {
+			while (!isEmpty() && writeNextBatch()) {
+				// keep writing until empty, or the backend fails
+			}
+		}
+		// not under the lock, which would stall draining for the whole scan
+		return this.delegate.scanBalances(visitor);
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) {
+		for (BalanceChange change : changes) {
+			if (this.queued.incrementAndGet() <= this.highWaterMark) {
+				this.queue.add(change);
+			} else {
+				this.queued.decrementAndGet();
+				this.coalesced.merge(change.getUniqueId(), change.getDelta(), Math::addExact);
+			}
+		}
+		scheduleDrain();
+		return Collections.emptyList();
+	}
+
+	private boolean isEmpty() {
+		return this.queued.get() == 0 && this.coalesced.isEmpty();
+	}
+
+	private void scheduleDrain() {
+		// a pending retry will drain once its backoff has passed
+		if (this.retryPending.get() || !this.draining.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			getPlugin().getScheduler().executeIo(this::drain);
+		} catch (RejectedExecutionException e) {
+			// the next write or retry will try again
+			this.draining.set(false);
+		}
+	}
+
+	private void drain() {
+		boolean failed = false;
+		try {
+			synchronized (this.writeLock) {
+				while (!isEmpty()) {
+					if (!writeNextBatch()) {
+						failed = true;
+						break;
+					}
+				}
+			}
+			if (failed) {
+				// before draining is cleared, so a write arriving now cannot start a drain
+				this.retryPending.set(true);
+			}
+		} finally {
+			this.draining.set(false);
+		}
+
+		if (failed) {
+			scheduleRetry();
+		} else if (!isEmpty()) {
+			// changes added after the last check, while still marked as draining
+			scheduleDrain();
+		}
+	}
+
+	/**
+	 * Writes one batch to the wrapped storage. Must hold the write lock.
+	 *
+	 * @return false if the backend failed
+	 */
+	private boolean writeNextBatch() {
+		List<BalanceChange> batch = new ArrayList<>(BATCH_SIZE);
+		synchronized (this.queueLock) {
+			BalanceChange change;
+			while (batch.size() < BATCH_SIZE && (change = this.queue.poll()) != null) {
+				this.queued.decrementAndGet();
+				batch.add(change);
+			}
+			Iterator<UUID> it = this.coalesced.keySet().iterator();
+			while (batch.size() < BATCH_SIZE && it.hasNext()) {
+				UUID uniqueId = it.next();
+				Long delta = this.coalesced.remove(uniqueId);
+				if (delta != null) {
+					batch.add(new BalanceChange(uniqueId, delta));
+				}
+			}
+			if (batch.isEmpty()) {
+				return true;
+			}
+			this.inFlight = batch;
+			this.batchesTaken++;
+		}
+
+		List<BalanceChange> unapplied = Collections.emptyList();
+		try {
+			logRejected(this.delegate.applyChanges(batch));
+			this.backoffMillis = 0;
+			return true;
+		} catch (PartialWriteException e) {
+			logRejected(e.getRejected());
+			unapplied = e.getUnapplied();
+			backOff();
+			getPlugin().getLogger().warning("Unable to write " + e.getUnapplied().size() + " of " + batch.size() +
+					" change(s) to " + getImplementationName() + ", retrying in " + this.backoffMillis + "ms");
+			e.printStackTrace();
+			return false;
+		} catch (Exception e) {
+			backOff();
+			getPlugin().getLogger().severe("Unable to write " + batch.size() + " change(s) to " +
+					getImplementationName() + ", some may have been written. Not retrying, so they are not written twice:");
+			e.printStackTrace();
+			List<UUID> uniqueIds = new ArrayList<>(batch.size());
+			for (BalanceChange failed : batch) {
+				getPlugin().getLogger().severe("  unconfirmed " + failed);
+				uniqueIds.add(failed.getUniqueId());
+			}
+			Consumer<Collection<UUID>> handler = this.uncertainWriteHandler;
+			if (handler != null) {
+				handler.accept(uniqueIds);
+			}
+			return false;
+		} finally {
+			// in the same step as the batch leaves flight, so a load never misses the unapplied changes
+			synchronized (this.queueLock) {
+				// coalesce on the way back in, so repeated failures cannot grow the queue
+				for (BalanceChange failed : unapplied) {
+					this.coalesced.merge(failed.getUniqueId(), failed.getDelta(), Math::addExact);
+				}
+				this.inFlight = Collections.emptyList();
+				this.queueLock.notifyAll();
+			}
+		}
+	}
+
+	private void backOff() {
+		this.backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(MIN_BACKOFF_MILLIS, this.backoffMillis * 2));
+	}
+
+	private void logRejected(List<BalanceChange> rejected) {
+		for (BalanceChange change : rejected) {
+			getPlugin().getLogger().warning("Queued change rejected by " + getImplementationName() +
+					", balance would become negative or overflow: " + change);
+		}
+	}
+
+	/**
+	 * Schedules a drain once the backoff has passed. The retry must already
+	 * be marked as pending.
+	 */
+	private void scheduleRetry() {
+		long delay;
+		synchronized (this.writeLock) {
+			delay = this.backoffMillis;
+		}
+		try {
+			this.retryTask = getPlugin().getScheduler().asyncLater(() -> {
+				this.retryPending.set(false);
+				scheduleDrain();
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// the next write will try again
+			this.retryPending.set(false);
+		}
+	}
+
+	private static final class PendingDelta {
+		long delta = 0;
+		boolean found = false;
+	}
+
+}
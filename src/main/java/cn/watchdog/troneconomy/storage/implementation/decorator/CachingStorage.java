@@ -0,0 +1,126 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.troneconomy.messaging.Messenger;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches loaded balances for a short time.
+ *
+ * <p>Writes through this decorator invalidate the affected entries. Writes
+ * made by other servers are only picked up once an entry expires, unless a
+ * {@link Messenger} is set, in which case each server passes on the ids it
+ * wrote and passes those it receives to {@link #invalidate(Collection)}.</p>
+ */
+public class CachingStorage extends ForwardingStorage {
+	private static final long DEFAULT_EXPIRY = TimeUnit.SECONDS.toNanos(30);
+	private static final int DEFAULT_MAXIMUM_SIZE = 50_000;
+
+	private final long expiryNanos;
+	private final int maximumSize;
+	private final Map<UUID, Entry> cache = new ConcurrentHashMap<>();
+	/**
+	 * Bumped on every invalidation, so a load which raced with a write does
+	 * not cache the balance from before the write.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+	private volatile Messenger messenger;
+
+	public CachingStorage(StorageImplementation delegate) {
+		this(delegate, DEFAULT_EXPIRY, TimeUnit.NANOSECONDS, DEFAULT_MAXIMUM_SIZE);
+	}
+
+	public CachingStorage(StorageImplementation delegate, long expiry, TimeUnit unit, int maximumSize) {
+		super(delegate);
+		this.expiryNanos = unit.toNanos(expiry);
+		this.maximumSize = maximumSize;
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		long now = System.nanoTime();
+		Entry entry = this.cache.get(uniqueId);
+		if (entry != null && now - entry.expiresAt < 0) {
+			return entry.balance;
+		}
+
+		long generation = this.generation.get();
+		OptionalLong balance = this.delegate.loadBalance(uniqueId);
+		if (this.generation.get() == generation) {
+			if (this.cache.size() >= this.maximumSize) {
+				evict(now);
+			}
+			this.cache.put(uniqueId, new Entry(balance, now + this.expiryNanos));
+		}
+		return balance;
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		try {
+			return this.delegate.applyChanges(changes);
+		} finally {
+			List<UUID> uniqueIds = new ArrayList<>(changes.size());
+			for (BalanceChange change : changes) {
+				uniqueIds.add(change.getUniqueId());
+			}
+			invalidate(uniqueIds);
+
+			Messenger messenger = this.messenger;
+			if (messenger != null) {
+				messenger.sendInvalidation(uniqueIds);
+			}
+		}
+	}
+
+	public void setMessenger(Messenger messenger) {
+		this.messenger = messenger;
+	}
+
+	/**
+	 * Drops the cached balances of some accounts, for example because another
+	 * server has written to them.
+	 *
+	 * @param uniqueIds the account ids
+	 */
+	public void invalidate(Collection<UUID> uniqueIds) {
+		this.generation.incrementAndGet();
+		for (UUID uniqueId : uniqueIds) {
+			this.cache.remove(uniqueId);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		this.cache.clear();
+		super.shutdown();
+	}
+
+	private void evict(long now) {
+		this.cache.values().removeIf(e -> now - e.expiresAt >= 0);
+		if (this.cache.size() >= this.maximumSize) {
+			this.cache.clear();
+		}
+	}
+
+	private static final class Entry {
+		private final OptionalLong balance;
+		private final long expiresAt;
+
+		Entry(OptionalLong balance, long expiresAt) {
+			this.balance = balance;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
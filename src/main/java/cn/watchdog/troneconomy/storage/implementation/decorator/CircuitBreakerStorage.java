@@ -0,0 +1,149 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.troneconomy.storage.StorageMetadata;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fails storage calls fast once the backend has failed repeatedly, instead of
+ * letting every caller wait for its own timeout.
+ *
+ * <p>After {@code threshold} consecutive failures the circuit opens and calls
+ * are rejected for the cooldown period. The first call after the cooldown is
+ * let through as a probe; its outcome closes or re-opens the circuit.</p>
+ */
+public class CircuitBreakerStorage extends ForwardingStorage {
+	private static final int DEFAULT_THRESHOLD = 5;
+	private static final long DEFAULT_COOLDOWN = TimeUnit.SECONDS.toNanos(10);
+
+	private final int threshold;
+	private final long cooldownNanos;
+	private final AtomicInteger failures = new AtomicInteger();
+	/**
+	 * When the circuit may next be probed, or 0 if the circuit is closed.
+	 */
+	private final AtomicLong openUntil = new AtomicLong();
+
+	public CircuitBreakerStorage(StorageImplementation delegate) {
+		this(delegate, DEFAULT_THRESHOLD, DEFAULT_COOLDOWN, TimeUnit.NANOSECONDS);
+	}
+
+	public CircuitBreakerStorage(StorageImplementation delegate, int threshold, long cooldown, TimeUnit unit) {
+		super(delegate);
+		this.threshold = threshold;
+		this.cooldownNanos = unit.toNanos(cooldown);
+	}
+
+	public boolean isOpen() {
+		return this.openUntil.get() != 0;
+	}
+
+	@Override
+	public StorageMetadata getMeta() {
+		if (isOpen()) {
+			return new StorageMetadata().connected(false);
+		}
+		return super.getMeta();
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		acquire();
+		try {
+			OptionalLong balance = this.delegate.loadBalance(uniqueId);
+			onSuccess();
+			return balance;
+		} catch (Exception e) {
+			onFailure();
+			throw e;
+		}
+	}
+
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws Exception {
+		acquire();
+		try {
+			List<AccountBalance> balances = this.delegate.loadBalances(after, limit);
+			onSuccess();
+			return balances;
+		} catch (Exception e) {
+			onFailure();
+			throw e;
+		}
+	}
+
+	@Override
+	public long scanBalances(BalanceVisitor visitor) throws Exception {
+		acquire();
+		// a failing visitor says nothing about the health of the backend
+		boolean[] visitorFailed = new boolean[1];
+		try {
+			long visited = this.delegate.scanBalances((uniqueId, balance) -> {
+				try {
+					visitor.visit(uniqueId, balance);
+				} catch (Exception e) {
+					visitorFailed[0] = true;
+					throw e;
+				}
+			});
+			onSuccess();
+			return visited;
+		} catch (Exception e) {
+			if (!visitorFailed[0]) {
+				onFailure();
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		acquire();
+		try {
+			List<BalanceChange> rejected = this.delegate.applyChanges(changes);
+			onSuccess();
+			return rejected;
+		} catch (Exception e) {
+			onFailure();
+			throw e;
+		}
+	}
+
+	private void acquire() {
+		long openUntil = this.openUntil.get();
+		if (openUntil == 0) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		// let a single probe through once the cooldown is over
+		if (now - openUntil < 0 || !this.openUntil.compareAndSet(openUntil, now + this.cooldownNanos)) {
+			throw new IllegalStateException("Storage circuit is open after repeated failures of " +
+					getImplementationName());
+		}
+	}
+
+	private void onSuccess() {
+		this.failures.set(0);
+		this.openUntil.set(0);
+	}
+
+	private void onFailure() {
+		if (this.failures.incrementAndGet() >= this.threshold) {
+			long until = System.nanoTime() + this.cooldownNanos;
+			// 0 means closed
+			this.openUntil.set(until == 0 ? 1 : until);
+		}
+	}
+
+}
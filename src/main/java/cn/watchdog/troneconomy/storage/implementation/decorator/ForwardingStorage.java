@@ -0,0 +1,86 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageMetadata;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+import cn.watchdog.troneconomy.storage.misc.BucketDigest;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * A {@link StorageImplementation} which forwards all calls to a delegate.
+ * Decorators override the calls they are interested in.
+ */
+public abstract class ForwardingStorage implements StorageImplementation {
+	protected final StorageImplementation delegate;
+
+	protected ForwardingStorage(StorageImplementation delegate) {
+		this.delegate = delegate;
+	}
+
+	public StorageImplementation getDelegate() {
+		return this.delegate;
+	}
+
+	@Override
+	public TronEconomy getPlugin() {
+		return this.delegate.getPlugin();
+	}
+
+	@Override
+	public String getImplementationName() {
+		return this.delegate.getImplementationName();
+	}
+
+	@Override
+	public void init() throws Exception {
+		this.delegate.init();
+	}
+
+	@Override
+	public void shutdown() {
+		this.delegate.shutdown();
+	}
+
+	@Override
+	public StorageMetadata getMeta() {
+		return this.delegate.getMeta();
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		return this.delegate.loadBalance(uniqueId);
+	}
+
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws Exception {
+		return this.delegate.loadBalances(after, limit);
+	}
+
+	@Override
+	public long scanBalances(BalanceVisitor visitor) throws Exception {
+		return this.delegate.scanBalances(visitor);
+	}
+
+	@Override
+	public List<BucketDigest> loadDigests(String prefix) throws Exception {
+		return this.delegate.loadDigests(prefix);
+	}
+
+	@Override
+	public List<AccountBalance> loadBucket(String prefix) throws Exception {
+		return this.delegate.loadBucket(prefix);
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		return this.delegate.applyChanges(changes);
+	}
+
+}
@@ -0,0 +1,81 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.troneconomy.leaderboard.RedisLeaderboard;
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Mirrors every successful write into a {@link RedisLeaderboard}.
+ *
+ * <p>When a write fails part way with a {@link PartialWriteException}, the
+ * part which was applied is still mirrored. After any other failure the
+ * outcome is unknown, so nothing is mirrored.</p>
+ *
+ * <p>Place this beneath {@link WriteBehindStorage} or
+ * {@link AdmissionControlStorage}, so each batched flush becomes a single
+ * Redis pipeline. A failure to update Redis is logged but does not fail the
+ * write, since storage remains the source of truth; the leaderboard can be
+ * corrected with {@link RedisLeaderboard#rebuild(String, StorageImplementation)}.</p>
+ */
+public class LeaderboardStorage extends ForwardingStorage {
+	private final RedisLeaderboard leaderboard;
+	private final String currency;
+
+	public LeaderboardStorage(StorageImplementation delegate, RedisLeaderboard leaderboard, String currency) {
+		super(delegate);
+		this.leaderboard = leaderboard;
+		this.currency = currency;
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		List<BalanceChange> rejected;
+		try {
+			rejected = this.delegate.applyChanges(changes);
+		} catch (PartialWriteException e) {
+			// the rest of the batch has been applied, and the deltas must reach the leaderboard exactly once
+			List<BalanceChange> notApplied = new ArrayList<>(e.getUnapplied());
+			notApplied.addAll(e.getRejected());
+			mirror(changes, notApplied);
+			throw e;
+		}
+		mirror(changes, rejected);
+		return rejected;
+	}
+
+	private void mirror(Collection<BalanceChange> changes, Collection<BalanceChange> notApplied) {
+		// storage combines changes per account, and rejects or applies each account as a whole
+		Map<UUID, Long> applied = new LinkedHashMap<>();
+		for (BalanceChange change : changes) {
+			applied.merge(change.getUniqueId(), change.getDelta(), Math::addExact);
+		}
+		for (BalanceChange change : notApplied) {
+			applied.remove(change.getUniqueId());
+		}
+		applied.values().removeIf(delta -> delta == 0);
+		if (applied.isEmpty()) {
+			return;
+		}
+
+		List<BalanceChange> updates = new ArrayList<>(applied.size());
+		for (Map.Entry<UUID, Long> entry : applied.entrySet()) {
+			updates.add(new BalanceChange(entry.getKey(), entry.getValue()));
+		}
+		try {
+			this.leaderboard.applyChanges(this.currency, updates);
+		} catch (RuntimeException e) {
+			getPlugin().getLogger().warning("Unable to update the " + this.currency + " leaderboard, " +
+					"it will drift until rebuilt");
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records call counts, failures and time spent in the wrapped storage.
+ */
+public class MetricsStorage extends ForwardingStorage {
+	private final Operation loads = new Operation();
+	private final Operation writes = new Operation();
+	private final LongAdder changesWritten = new LongAdder();
+
+	public MetricsStorage(StorageImplementation delegate) {
+		super(delegate);
+	}
+
+	public Operation getLoads() {
+		return this.loads;
+	}
+
+	public Operation getWrites() {
+		return this.writes;
+	}
+
+	public long getChangesWritten() {
+		return this.changesWritten.sum();
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			OptionalLong balance = this.delegate.loadBalance(uniqueId);
+			success = true;
+			return balance;
+		} finally {
+			this.loads.record(System.nanoTime() - start, success);
+		}
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			List<BalanceChange> rejected = this.delegate.applyChanges(changes);
+			success = true;
+			this.changesWritten.add(changes.size());
+			return rejected;
+		} finally {
+			this.writes.record(System.nanoTime() - start, success);
+		}
+	}
+
+	/**
+	 * Counters for a single kind of storage call.
+	 */
+	public static final class Operation {
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+
+		void record(long nanos, boolean success) {
+			this.calls.increment();
+			this.totalNanos.add(nanos);
+			if (!success) {
+				this.failures.increment();
+			}
+		}
+
+		public long getCalls() {
+			return this.calls.sum();
+		}
+
+		public long getFailures() {
+			return this.failures.sum();
+		}
+
+		public double getAverageMillis() {
+			long calls = this.calls.sum();
+			return calls == 0 ? 0 : (double) this.totalNanos.sum() / calls / TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		@Override
+		public String toString() {
+			return getCalls() + " calls, " + getFailures() + " failures, " +
+					String.format("%.2f", getAverageMillis()) + "ms avg";
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.net.ConnectException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries failed storage calls with a jittered exponential backoff.
+ *
+ * <p>Loads are always retried. A failed write may still have been applied
+ * (e.g. when the acknowledgement timed out), so writes are only retried when
+ * the failure shows that the backend was never reached, and after a
+ * {@link PartialWriteException} only the changes it lists as unapplied are
+ * retried.</p>
+ */
+public class RetryingStorage extends ForwardingStorage {
+	private static final int DEFAULT_ATTEMPTS = 3;
+	private static final long DEFAULT_BACKOFF_MILLIS = 50;
+
+	private final int attempts;
+	private final long backoffMillis;
+
+	public RetryingStorage(StorageImplementation delegate) {
+		this(delegate, DEFAULT_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+	}
+
+	public RetryingStorage(StorageImplementation delegate, int attempts, long backoffMillis) {
+		super(delegate);
+		if (attempts < 1) {
+			throw new IllegalArgumentException("attempts must be at least 1");
+		}
+		this.attempts = attempts;
+		this.backoffMillis = backoffMillis;
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return this.delegate.loadBalance(uniqueId);
+			} catch (Exception e) {
+				if (attempt >= this.attempts) {
+					throw e;
+				}
+				backoff(attempt);
+			}
+		}
+	}
+
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws Exception {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return this.delegate.loadBalances(after, limit);
+			} catch (Exception e) {
+				if (attempt >= this.attempts) {
+					throw e;
+				}
+				backoff(attempt);
+			}
+		}
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		List<BalanceChange> rejected = new ArrayList<>();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				rejected.addAll(this.delegate.applyChanges(changes));
+				return rejected;
+			} catch (PartialWriteException e) {
+				// the rest of the batch was applied, only what is known to be unapplied is retried
+				rejected.addAll(e.getRejected());
+				if (attempt >= this.attempts) {
+					throw new PartialWriteException(e.getMessage(), e.getUnapplied(), rejected, e);
+				}
+				changes = e.getUnapplied();
+				backoff(attempt);
+			} catch (Exception e) {
+				if (attempt >= this.attempts || !isUnreachable(e)) {
+					throw e;
+				}
+				backoff(attempt);
+			}
+		}
+	}
+
+	private static boolean isUnreachable(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SQLTransientConnectionException || t instanceof ConnectException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void backoff(int attempt) throws InterruptedException {
+		long max = this.backoffMillis << Math.min(attempt - 1, 10);
+		Thread.sleep(ThreadLocalRandom.current().nextLong(max / 2, max + 1));
+	}
+
+}
@@ -0,0 +1,180 @@
+package cn.watchdog.troneconomy.storage.implementation.decorator;
+
+import cn.watchdog.scheduler.SchedulerAdapter;
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Acknowledges writes immediately and applies them to the wrapped storage in
+ * periodic batches.
+ *
+ * <p>Pending changes are coalesced per account, so the queue holds at most
+ * one entry per account however many changes arrive between flushes. Because
+ * writes are acknowledged before they reach the backend, changes rejected by
+ * the backend are only logged.</p>
+ *
+ * <p>Changes which the backend reports as not applied, through a
+ * {@link PartialWriteException}, are re-queued and retried on the next
+ * interval. Any other failure may have applied part of the batch, so writing
+ * it again could apply it twice: the batch is logged instead, and its
+ * accounts are passed to the uncertain write handler, such as
+ * {@link cn.watchdog.troneconomy.ledger.LedgerReconciler#markUncertain(Collection)}.</p>
+ */
+public class WriteBehindStorage extends ForwardingStorage {
+	private static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+	private final long interval;
+	private final TimeUnit unit;
+	private final Map<UUID, Long> pending = new ConcurrentHashMap<>();
+	private final Object flushLock = new Object();
+	private SchedulerTask task;
+	private volatile Consumer<Collection<UUID>> uncertainWriteHandler = null;
+
+	public WriteBehindStorage(StorageImplementation delegate) {
+		this(delegate, DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	public WriteBehindStorage(StorageImplementation delegate, long interval, TimeUnit unit) {
+		super(delegate);
+		this.interval = interval;
+		this.unit = unit;
+	}
+
+	/**
+	 * Gets the number of accounts with changes waiting to be flushed.
+	 *
+	 * @return the number of pending accounts
+	 */
+	public int getPendingAccounts() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Sets the handler for accounts whose stored balance is unknown after a
+	 * failed flush.
+	 *
+	 * @param handler the handler, or null to only log them
+	 */
+	public void setUncertainWriteHandler(Consumer<Collection<UUID>> handler) {
+		this.uncertainWriteHandler = handler;
+	}
+
+	@Override
+	public void init() throws Exception {
+		super.init();
+		SchedulerAdapter scheduler = getPlugin().getScheduler();
+		this.task = scheduler.asyncRepeating(() -> scheduler.executeIo(this::flush), this.interval, this.unit);
+	}
+
+	@Override
+	public void shutdown() {
+		if (this.task != null) {
+			this.task.cancel();
+		}
+		flush();
+		if (!this.pending.isEmpty()) {
+			getPlugin().getLogger().severe("Shutting down with " + this.pending.size() +
+					" account(s) not written to " + getImplementationName());
+		}
+		super.shutdown();
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws Exception {
+		// a flush in progress has already removed its changes from the queue
+		synchronized (this.flushLock) {
+			OptionalLong stored = this.delegate.loadBalance(uniqueId);
+			Long delta = this.pending.get(uniqueId);
+			if (delta == null) {
+				return stored;
+			}
+			return OptionalLong.of(stored.orElse(0L) + delta);
+		}
+	}
+
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws Exception {
+		// write out what is queued, so a full walk sees every account
+		flush();
+		return this.delegate.loadBalances(after, limit);
+	}
+
+	@Override
+	public long scanBalances(BalanceVisitor visitor) throws Exception {
+		flush();
+		return this.delegate.scanBalances(visitor);
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) {
+		for (BalanceChange change : changes) {
+			this.pending.merge(change.getUniqueId(), change.getDelta(), Math::addExact);
+		}
+		return Collections.emptyList();
+	}
+
+	private void logRejected(List<BalanceChange> rejected) {
+		for (BalanceChange change : rejected) {
+			getPlugin().getLogger().warning("Write-behind change rejected by " + getImplementationName() +
+					", balance would become negative or overflow: " + change);
+		}
+	}
+
+	/**
+	 * Writes all pending changes to the wrapped storage.
+	 */
+	public void flush() {
+		synchronized (this.flushLock) {
+			if (this.pending.isEmpty()) {
+				return;
+			}
+
+			List<BalanceChange> batch = new ArrayList<>(this.pending.size());
+			for (UUID uniqueId : this.pending.keySet()) {
+				Long delta = this.pending.remove(uniqueId);
+				if (delta != null) {
+					batch.add(new BalanceChange(uniqueId, delta));
+				}
+			}
+
+			try {
+				logRejected(this.delegate.applyChanges(batch));
+			} catch (PartialWriteException e) {
+				logRejected(e.getRejected());
+				getPlugin().getLogger().warning("Unable to flush " + e.getUnapplied().size() + " of " + batch.size() +
+						" account(s) to " + getImplementationName() + ", retrying them on the next interval");
+				e.printStackTrace();
+				applyChanges(e.getUnapplied());
+			} catch (Exception e) {
+				getPlugin().getLogger().severe("Unable to flush " + batch.size() + " account(s) to " +
+						getImplementationName() + ", some may have been written. Not retrying, so they are not written twice:");
+				e.printStackTrace();
+				List<UUID> uniqueIds = new ArrayList<>(batch.size());
+				for (BalanceChange change : batch) {
+					getPlugin().getLogger().severe("  unconfirmed " + change);
+					uniqueIds.add(change.getUniqueId());
+				}
+				Consumer<Collection<UUID>> handler = this.uncertainWriteHandler;
+				if (handler != null) {
+					handler.accept(uniqueIds);
+				}
+			}
+		}
+	}
+
+}
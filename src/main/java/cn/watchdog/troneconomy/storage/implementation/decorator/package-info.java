@@ -0,0 +1,4 @@
+/**
+ * 可叠加的存储装饰器的包。
+ */
+package cn.watchdog.troneconomy.storage.implementation.decorator;
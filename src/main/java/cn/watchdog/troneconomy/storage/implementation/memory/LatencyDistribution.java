@@ -0,0 +1,73 @@
+package cn.watchdog.troneconomy.storage.implementation.memory;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution of simulated operation latencies.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+	/**
+	 * No added latency.
+	 */
+	LatencyDistribution NONE = random -> 0L;
+
+	/**
+	 * Always the same latency.
+	 *
+	 * @param latency the latency
+	 * @param unit    the unit of latency
+	 * @return the distribution
+	 */
+	static LatencyDistribution fixed(long latency, TimeUnit unit) {
+		long nanos = unit.toNanos(latency);
+		return random -> nanos;
+	}
+
+	/**
+	 * A latency chosen uniformly between the given bounds.
+	 *
+	 * @param min  the minimum latency, inclusive
+	 * @param max  the maximum latency, inclusive
+	 * @param unit the unit of the bounds
+	 * @return the distribution
+	 */
+	static LatencyDistribution uniform(long min, long max, TimeUnit unit) {
+		long minNanos = unit.toNanos(min);
+		long maxNanos = unit.toNanos(max);
+		if (maxNanos < minNanos) {
+			throw new IllegalArgumentException("max < min");
+		}
+		return random -> minNanos + (long) (random.nextDouble() * (maxNanos - minNanos + 1));
+	}
+
+	/**
+	 * A log-normal latency, which models the long tail of real database
+	 * calls: most calls are close to the median, a few are much slower.
+	 *
+	 * @param median the median latency
+	 * @param sigma  the standard deviation of the underlying normal distribution, e.g. 0.5
+	 * @param unit   the unit of median
+	 * @return the distribution
+	 */
+	static LatencyDistribution logNormal(long median, double sigma, TimeUnit unit) {
+		double mu = Math.log(unit.toNanos(median));
+		return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+	}
+
+	/**
+	 * Samples a latency.
+	 *
+	 * @param random the random source
+	 * @return the latency, in nanoseconds
+	 */
+	long sampleNanos(Random random);
+
+	default long sampleNanos() {
+		return sampleNanos(ThreadLocalRandom.current());
+	}
+
+}
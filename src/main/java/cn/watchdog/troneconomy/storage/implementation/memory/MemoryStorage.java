@@ -0,0 +1,244 @@
+package cn.watchdog.troneconomy.storage.implementation.memory;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageMetadata;
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+import cn.watchdog.troneconomy.storage.misc.BucketDigest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link StorageImplementation} which keeps all data in memory.
+ *
+ * <p>Intended for load tests: each operation can be given a simulated
+ * latency distribution and an error rate, so the caching, batching and
+ * scheduling layers above it can be measured in isolation, and database
+ * stalls can be reproduced without a database.</p>
+ */
+public class MemoryStorage implements StorageImplementation {
+	private final TronEconomy plugin;
+	// sorted, so loadBalances can continue from any id
+	private final ConcurrentNavigableMap<UUID, AtomicLong> balances = new ConcurrentSkipListMap<>();
+
+	private final Map<Operation, LatencyDistribution> latencies = new EnumMap<>(Operation.class);
+	private final Map<Operation, Double> errorRates = new EnumMap<>(Operation.class);
+
+	public MemoryStorage(TronEconomy plugin) {
+		this.plugin = plugin;
+		for (Operation operation : Operation.values()) {
+			this.latencies.put(operation, LatencyDistribution.NONE);
+			this.errorRates.put(operation, 0.0);
+		}
+	}
+
+	/**
+	 * Sets the simulated latency of an operation.
+	 *
+	 * @param operation    the operation
+	 * @param distribution the latency distribution
+	 * @return this storage
+	 */
+	public MemoryStorage latency(Operation operation, LatencyDistribution distribution) {
+		this.latencies.put(operation, distribution);
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of calls of an operation which fail.
+	 *
+	 * @param operation the operation
+	 * @param rate      the error rate, between 0 and 1
+	 * @return this storage
+	 */
+	public MemoryStorage errorRate(Operation operation, double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("rate must be between 0 and 1");
+		}
+		this.errorRates.put(operation, rate);
+		return this;
+	}
+
+	@Override
+	public TronEconomy getPlugin() {
+		return this.plugin;
+	}
+
+	@Override
+	public String getImplementationName() {
+		return "Memory";
+	}
+
+	@Override
+	public void init() {
+
+	}
+
+	@Override
+	public void shutdown() {
+
+	}
+
+	@Override
+	public StorageMetadata getMeta() {
+		long start = System.nanoTime();
+		boolean success = true;
+		try {
+			simulate(Operation.META);
+		} catch (IOException e) {
+			success = false;
+		}
+		StorageMetadata meta = new StorageMetadata().connected(success);
+		if (success) {
+			meta.ping((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+		return meta;
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws IOException {
+		simulate(Operation.LOAD);
+		AtomicLong balance = this.balances.get(uniqueId);
+		return balance == null ? OptionalLong.empty() : OptionalLong.of(balance.get());
+	}
+
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws IOException {
+		simulate(Operation.LOAD);
+		Map<UUID, AtomicLong> tail = after == null ? this.balances : this.balances.tailMap(after, false);
+		List<AccountBalance> balances = new ArrayList<>(Math.min(limit, 1024));
+		for (Map.Entry<UUID, AtomicLong> entry : tail.entrySet()) {
+			if (balances.size() >= limit) {
+				break;
+			}
+			balances.add(new AccountBalance(entry.getKey(), entry.getValue().get()));
+		}
+		return balances;
+	}
+
+	@Override
+	public long scanBalances(BalanceVisitor visitor) throws Exception {
+		simulate(Operation.LOAD);
+		long visited = 0;
+		for (Map.Entry<UUID, AtomicLong> entry : this.balances.entrySet()) {
+			visitor.visit(entry.getKey(), entry.getValue().get());
+			visited++;
+		}
+		return visited;
+	}
+
+	@Override
+	public List<BucketDigest> loadDigests(String prefix) throws IOException {
+		simulate(Operation.LOAD);
+		int depth = prefix.length() + 1;
+		Map<String, BucketDigest.Builder> buckets = new HashMap<>();
+		for (Map.Entry<UUID, AtomicLong> entry : bucket(prefix).entrySet()) {
+			String bucket = BucketDigest.bucketOf(entry.getKey(), depth);
+			buckets.computeIfAbsent(bucket, b -> new BucketDigest.Builder()).add(entry.getKey(), entry.getValue().get());
+		}
+		List<BucketDigest> digests = new ArrayList<>(buckets.size());
+		for (Map.Entry<String, BucketDigest.Builder> entry : buckets.entrySet()) {
+			digests.add(entry.getValue().build(entry.getKey()));
+		}
+		return digests;
+	}
+
+	@Override
+	public List<AccountBalance> loadBucket(String prefix) throws IOException {
+		simulate(Operation.LOAD);
+		List<AccountBalance> balances = new ArrayList<>();
+		for (Map.Entry<UUID, AtomicLong> entry : bucket(prefix).entrySet()) {
+			balances.add(new AccountBalance(entry.getKey(), entry.getValue().get()));
+		}
+		return balances;
+	}
+
+	/**
+	 * Gets the accounts whose id starts with a prefix of hex digits. These
+	 * are a range of the most significant bits, which never crosses the sign
+	 * bit, so they are also a range of the map.
+	 */
+	private Map<UUID, AtomicLong> bucket(String prefix) {
+		if (prefix.isEmpty()) {
+			return this.balances;
+		}
+		if (prefix.length() > 8) {
+			throw new IllegalArgumentException("Bucket prefix is too long: " + prefix);
+		}
+		int shift = 64 - prefix.length() * 4;
+		long low = Long.parseUnsignedLong(prefix, 16) << shift;
+		// wraps to the end of the positive or negative half of the map
+		long high = low + (1L << shift) - 1;
+		return this.balances.subMap(new UUID(low, Long.MIN_VALUE), true, new UUID(high, Long.MAX_VALUE), true);
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws PartialWriteException {
+		try {
+			simulate(Operation.WRITE);
+		} catch (IOException e) {
+			// the fault is injected before anything is written
+			throw new PartialWriteException(e.getMessage(), new ArrayList<>(changes), new ArrayList<>(), e);
+		}
+
+		Map<UUID, Long> pending = new LinkedHashMap<>();
+		for (BalanceChange change : changes) {
+			pending.merge(change.getUniqueId(), change.getDelta(), Math::addExact);
+		}
+
+		List<BalanceChange> rejected = new ArrayList<>();
+		for (Map.Entry<UUID, Long> entry : pending.entrySet()) {
+			long delta = entry.getValue();
+			AtomicLong balance = this.balances.computeIfAbsent(entry.getKey(), id -> new AtomicLong());
+			long current;
+			do {
+				current = balance.get();
+				// rejected like the SQL backend, when negative or too large for a long
+				if (delta < 0 ? current + delta < 0 : current > Long.MAX_VALUE - delta) {
+					rejected.add(new BalanceChange(entry.getKey(), delta));
+					break;
+				}
+			} while (!balance.compareAndSet(current, current + delta));
+		}
+		return rejected;
+	}
+
+	private void simulate(Operation operation) throws IOException {
+		long latency = this.latencies.get(operation).sampleNanos();
+		if (latency > 0) {
+			LockSupport.parkNanos(latency);
+		}
+
+		double errorRate = this.errorRates.get(operation);
+		if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			throw new IOException("Injected " + operation.name().toLowerCase(Locale.ROOT) + " fault");
+		}
+	}
+
+	/**
+	 * The operations which can be given a latency and error rate.
+	 */
+	public enum Operation {
+		LOAD, WRITE, META
+	}
+
+}
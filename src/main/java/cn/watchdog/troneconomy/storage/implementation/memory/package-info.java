@@ -0,0 +1,4 @@
+/**
+ * 用于压力测试的内存存储实现的包。
+ */
+package cn.watchdog.troneconomy.storage.implementation.memory;
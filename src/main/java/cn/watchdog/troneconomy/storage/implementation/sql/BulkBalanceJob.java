@@ -0,0 +1,313 @@
+package cn.watchdog.troneconomy.storage.implementation.sql;
+
+import cn.watchdog.scheduler.SchedulerAdapter;
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.implementation.sql.connection.ConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a {@link BulkOperation} over the accounts table as a sequence of
+ * primary key range updates.
+ *
+ * <p>Each chunk is a single short transaction, and chunks are spaced out by
+ * {@link SchedulerAdapter#asyncRepeating(Runnable, long, TimeUnit)} so the
+ * database (and any replicas) can keep up with normal traffic.</p>
+ *
+ * <p>The update bypasses the ledger and any caching decorators. Balances are
+ * never read into Java nor locked beyond the update itself, so the exact
+ * changes are not known; instead the accounts of each committed chunk are
+ * passed to a {@link ChunkListener}, which should mark them with
+ * {@link cn.watchdog.troneconomy.ledger.LedgerReconciler#markUncertain(java.util.Collection)}
+ * so held balances are corrected from storage, and invalidate cached
+ * balances.</p>
+ *
+ * <p>A job has one run at a time. A job which failed or was cancelled can be
+ * resumed by starting it again, see {@link #start(long)}.</p>
+ */
+public class BulkBalanceJob {
+	private static final String ID_BOUNDS = "SELECT MIN(id), MAX(id) FROM {prefix}accounts WHERE currency = ?";
+	private static final String CHUNK_SELECT = "SELECT uuid FROM {prefix}accounts WHERE currency = ? AND id >= ? AND id < ?";
+
+	private final TronEconomy plugin;
+	private final ConnectionFactory connectionFactory;
+	private final BulkOperation operation;
+	private final String currency;
+	private final int chunkSize;
+	private final long throttle;
+	private final TimeUnit unit;
+	private final ChunkListener listener;
+
+	// replaced by each run, guarded by this
+	private volatile CompletableFuture<Long> future = new CompletableFuture<>();
+	private boolean started = false;
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	// the repeating task of the latest run
+	private volatile AtomicReference<SchedulerTask> task = new AtomicReference<>();
+
+	private long minId;
+	private long maxId;
+	private volatile long cursor;
+	private long rowsUpdated = 0;
+	private int reportedPercent = 0;
+
+	/**
+	 * Creates a job.
+	 *
+	 * @param plugin            the plugin
+	 * @param connectionFactory the connection factory
+	 * @param operation         the operation
+	 * @param currency          the currency
+	 * @param chunkSize         the number of ids per chunk
+	 * @param throttle          the time between chunks
+	 * @param unit              the unit of throttle
+	 * @param listener          the listener for the changes of each chunk
+	 */
+	public BulkBalanceJob(TronEconomy plugin, ConnectionFactory connectionFactory, BulkOperation operation, String currency, int chunkSize, long throttle, TimeUnit unit, ChunkListener listener) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.plugin = plugin;
+		this.connectionFactory = connectionFactory;
+		this.operation = operation;
+		this.currency = currency;
+		this.chunkSize = chunkSize;
+		this.throttle = throttle;
+		this.unit = unit;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts the job.
+	 *
+	 * @return a future completed with the number of updated rows
+	 */
+	public CompletableFuture<Long> start() {
+		return start(Long.MIN_VALUE);
+	}
+
+	/**
+	 * Starts the job from the given id, to resume a job which failed or was
+	 * cancelled part way. Every chunk below {@link #getCursor()} of that job
+	 * has been committed, so it is passed here to carry on where it stopped.
+	 * Each run has its own future.
+	 *
+	 * @param fromId the lowest id to update
+	 * @return a future completed with the number of rows updated by this run
+	 * @throws IllegalStateException if the job is already running
+	 */
+	public synchronized CompletableFuture<Long> start(long fromId) {
+		if (this.started) {
+			if (!this.future.isDone()) {
+				throw new IllegalStateException("The job is already running");
+			}
+			this.future = new CompletableFuture<>();
+		}
+		this.started = true;
+		CompletableFuture<Long> future = this.future;
+		AtomicReference<SchedulerTask> task = new AtomicReference<>();
+		this.task = task;
+
+		SchedulerAdapter scheduler = this.plugin.getScheduler();
+		try {
+			scheduler.executeIo(() -> {
+				try {
+					if (!loadBounds(fromId)) {
+						future.complete(0L);
+						return;
+					}
+				} catch (SQLException e) {
+					future.completeExceptionally(e);
+					return;
+				}
+
+				this.plugin.getLogger().info("Starting " + this.operation.getName() + " for currency " + this.currency +
+						" over ids " + this.cursor + ".." + this.maxId);
+				task.set(scheduler.asyncRepeating(() -> scheduler.executeIo(() -> runChunk(future, task)), this.throttle, this.unit));
+				// cancel() may have run before the task was assigned
+				if (future.isDone()) {
+					stopRepeating(task);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Stops the job after the chunk which is currently running, if any.
+	 */
+	public void cancel() {
+		stopRepeating(this.task);
+		this.future.cancel(false);
+	}
+
+	/**
+	 * Gets the future of the latest run. Cancelling it stops the job like
+	 * {@link #cancel()}.
+	 *
+	 * @return the future
+	 */
+	public CompletableFuture<Long> getFuture() {
+		return this.future;
+	}
+
+	/**
+	 * Gets the lowest id which has not been updated yet.
+	 *
+	 * @return the id to resume from
+	 */
+	public long getCursor() {
+		return this.cursor;
+	}
+
+	private boolean loadBounds(long fromId) throws SQLException {
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ID_BOUNDS))) {
+				ps.setString(1, this.currency);
+				try (ResultSet rs = ps.executeQuery()) {
+					if (!rs.next()) {
+						return false;
+					}
+					this.minId = rs.getLong(1);
+					if (rs.wasNull()) {
+						return false;
+					}
+					this.maxId = rs.getLong(2);
+				}
+			}
+		}
+		this.cursor = Math.max(this.minId, fromId);
+		this.rowsUpdated = 0;
+		this.reportedPercent = 0;
+		return this.cursor <= this.maxId;
+	}
+
+	private void runChunk(CompletableFuture<Long> future, AtomicReference<SchedulerTask> task) {
+		if (future.isDone()) {
+			// cancelled, possibly through the future itself
+			stopRepeating(task);
+			return;
+		}
+		// a slow chunk must not overlap with the next tick
+		if (!this.running.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			long lower = this.cursor;
+			long upper = Math.min(lower + this.chunkSize, this.maxId + 1);
+			int updated = updateChunk(lower, upper);
+			this.rowsUpdated += updated;
+			this.cursor = upper;
+
+			if (updated > 0) {
+				try {
+					this.listener.onChunkApplied(readChunk(lower, upper));
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+
+			reportProgress();
+			if (this.cursor > this.maxId) {
+				stopRepeating(task);
+				this.plugin.getLogger().info("Finished " + this.operation.getName() + " for currency " +
+						this.currency + ", " + this.rowsUpdated + " accounts updated");
+				future.complete(this.rowsUpdated);
+			}
+		} catch (SQLException e) {
+			stopRepeating(task);
+			this.plugin.getLogger().severe("Error running " + this.operation.getName() + " at id " + this.cursor +
+					", the job can be resumed with start(" + this.cursor + ")");
+			e.printStackTrace();
+			future.completeExceptionally(e);
+		} finally {
+			this.running.set(false);
+		}
+	}
+
+	/**
+	 * Updates one chunk in a single auto-committed statement, which locks
+	 * only the rows it changes and only for its own duration.
+	 *
+	 * @return the number of rows updated
+	 */
+	private int updateChunk(long lower, long upper) throws SQLException {
+		String update = this.connectionFactory.getStatementProcessor().apply(this.operation.createStatement(this.connectionFactory.getType()));
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(update)) {
+				this.operation.bind(ps, this.currency, lower, upper);
+				return ps.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * Reads the ids of the accounts of a committed chunk, without locking
+	 * them.
+	 */
+	private List<UUID> readChunk(long lower, long upper) throws SQLException {
+		List<UUID> uniqueIds = new ArrayList<>();
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(CHUNK_SELECT))) {
+				ps.setString(1, this.currency);
+				ps.setLong(2, lower);
+				ps.setLong(3, upper);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						uniqueIds.add(UUID.fromString(rs.getString(1)));
+					}
+				}
+			}
+		}
+		return uniqueIds;
+	}
+
+	private static void stopRepeating(AtomicReference<SchedulerTask> task) {
+		SchedulerTask scheduled = task.get();
+		if (scheduled != null) {
+			scheduled.cancel();
+		}
+	}
+
+	private void reportProgress() {
+		long span = this.maxId - this.minId + 1;
+		int percent = (int) ((this.cursor - this.minId) * 100 / span);
+		if (percent / 10 > this.reportedPercent / 10 && percent < 100) {
+			this.reportedPercent = percent;
+			this.plugin.getLogger().info(this.operation.getName() + " for currency " + this.currency + ": " +
+					percent + "% (" + this.rowsUpdated + " accounts updated)");
+		}
+	}
+
+	/**
+	 * Receives the accounts of each committed chunk.
+	 */
+	@FunctionalInterface
+	public interface ChunkListener {
+
+		/**
+		 * Called from an I/O thread after a chunk which updated at least one
+		 * account has been committed.
+		 *
+		 * @param uniqueIds the ids of every account in the chunk, whether or not it was updated
+		 */
+		void onChunkApplied(List<UUID> uniqueIds);
+
+	}
+
+}
@@ -0,0 +1,216 @@
+package cn.watchdog.troneconomy.storage.implementation.sql;
+
+import cn.watchdog.troneconomy.storage.StorageType;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A set based balance update which is applied inside the database, one
+ * primary key range at a time.
+ *
+ * <p>Amounts are in minor units and rates are in basis points, so every
+ * dialect performs the same integer arithmetic. Rates are applied as
+ * {@code (amount / 10000) * rate + (amount % 10000) * rate / 10000}, which
+ * truncates like {@code amount * rate / 10000} without the intermediate
+ * product overflowing {@code BIGINT}.</p>
+ */
+public abstract class BulkOperation {
+	private static final long BASIS_POINTS = 10_000L;
+
+	private final String name;
+
+	private BulkOperation(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Credits interest to every positive balance. Balances so large that the
+	 * interest would take them past the largest {@code BIGINT} are left
+	 * unchanged.
+	 *
+	 * @param basisPoints the interest rate, in basis points
+	 * @return the operation
+	 */
+	public static BulkOperation interest(long basisPoints) {
+		if (basisPoints < 0) {
+			throw new IllegalArgumentException("basisPoints must not be negative");
+		}
+		// balance + balance * rate / 10000 never exceeds Long.MAX_VALUE up to here
+		long limit = Long.MAX_VALUE / (BASIS_POINTS + basisPoints) * BASIS_POINTS;
+		return new BulkOperation("interest") {
+			@Override
+			String setClause(StorageType type) {
+				return "balance = balance + " + applyRate(type, "balance");
+			}
+
+			@Override
+			String condition() {
+				return "balance > 0 AND balance <= ?";
+			}
+
+			@Override
+			int bindSet(PreparedStatement ps, int index) throws SQLException {
+				return bindRate(ps, index, basisPoints, null);
+			}
+
+			@Override
+			int bindCondition(PreparedStatement ps, int index) throws SQLException {
+				ps.setLong(index++, limit);
+				return index;
+			}
+		};
+	}
+
+	/**
+	 * Taxes the part of every balance which exceeds the given threshold.
+	 *
+	 * @param basisPoints the tax rate, in basis points, at most 10000
+	 * @param threshold   the tax free allowance
+	 * @return the operation
+	 */
+	public static BulkOperation wealthTax(long basisPoints, long threshold) {
+		if (basisPoints < 0 || basisPoints > BASIS_POINTS) {
+			throw new IllegalArgumentException("basisPoints must be between 0 and " + BASIS_POINTS);
+		}
+		if (threshold < 0) {
+			// balance - threshold could overflow otherwise
+			throw new IllegalArgumentException("threshold must not be negative");
+		}
+		return new BulkOperation("wealth tax") {
+			@Override
+			String setClause(StorageType type) {
+				return "balance = balance - " + applyRate(type, "(balance - ?)");
+			}
+
+			@Override
+			String condition() {
+				return "balance > ?";
+			}
+
+			@Override
+			int bindSet(PreparedStatement ps, int index) throws SQLException {
+				return bindRate(ps, index, basisPoints, threshold);
+			}
+
+			@Override
+			int bindCondition(PreparedStatement ps, int index) throws SQLException {
+				ps.setLong(index++, threshold);
+				return index;
+			}
+		};
+	}
+
+	/**
+	 * Resets every balance to the given value.
+	 *
+	 * @param balance the new balance
+	 * @return the operation
+	 */
+	public static BulkOperation seasonReset(long balance) {
+		return new BulkOperation("season reset") {
+			@Override
+			String setClause(StorageType type) {
+				return "balance = ?";
+			}
+
+			@Override
+			String condition() {
+				return "balance <> ?";
+			}
+
+			@Override
+			int bindSet(PreparedStatement ps, int index) throws SQLException {
+				ps.setLong(index++, balance);
+				return index;
+			}
+
+			@Override
+			int bindCondition(PreparedStatement ps, int index) throws SQLException {
+				ps.setLong(index++, balance);
+				return index;
+			}
+		};
+	}
+
+	/**
+	 * Gets an expression for {@code amount * rate / 10000}. The rate and the
+	 * basis points are parameters, see {@link #bindRate}.
+	 */
+	private static String applyRate(StorageType type, String amount) {
+		// parenthesised as a whole, since it is subtracted by the wealth tax
+		return "((" + divide(type, amount, "?") + ") * ? + " + divide(type, "(" + amount + " % ?) * ?", "?") + ")";
+	}
+
+	/**
+	 * Binds the parameters of {@link #applyRate}.
+	 *
+	 * @param amountParameter the value of the parameter in the amount, or null if it has none
+	 */
+	private static int bindRate(PreparedStatement ps, int index, long basisPoints, Long amountParameter) throws SQLException {
+		if (amountParameter != null) {
+			ps.setLong(index++, amountParameter);
+		}
+		ps.setLong(index++, BASIS_POINTS);
+		ps.setLong(index++, basisPoints);
+		if (amountParameter != null) {
+			ps.setLong(index++, amountParameter);
+		}
+		ps.setLong(index++, BASIS_POINTS);
+		ps.setLong(index++, basisPoints);
+		ps.setLong(index++, BASIS_POINTS);
+		return index;
+	}
+
+	/**
+	 * Gets an expression for integer division, truncating towards zero.
+	 */
+	static String divide(StorageType type, String dividend, String divisor) {
+		switch (type) {
+			case MYSQL:
+			case MARIADB:
+				// '/' yields a DECIMAL on MySQL, DIV truncates like the other dialects
+				return "(" + dividend + ") DIV " + divisor;
+			case POSTGRESQL:
+			case SQLITE:
+			case H2:
+				return "(" + dividend + ") / " + divisor;
+			default:
+				throw new IllegalArgumentException("Unsupported SQL type " + type);
+		}
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Creates the chunk statement for the given dialect. The statement takes
+	 * the operation parameters, followed by the currency and the lower
+	 * (inclusive) and upper (exclusive) id bounds.
+	 *
+	 * @param type the storage type
+	 * @return the unprocessed statement
+	 */
+	String createStatement(StorageType type) {
+		return "UPDATE {prefix}accounts SET " + setClause(type) + ", version = version + 1" +
+				" WHERE currency = ? AND id >= ? AND id < ? AND " + condition();
+	}
+
+	void bind(PreparedStatement ps, String currency, long lower, long upper) throws SQLException {
+		int index = bindSet(ps, 1);
+		ps.setString(index++, currency);
+		ps.setLong(index++, lower);
+		ps.setLong(index++, upper);
+		bindCondition(ps, index);
+	}
+
+	abstract String setClause(StorageType type);
+
+	abstract String condition();
+
+	abstract int bindSet(PreparedStatement ps, int index) throws SQLException;
+
+	abstract int bindCondition(PreparedStatement ps, int index) throws SQLException;
+
+}
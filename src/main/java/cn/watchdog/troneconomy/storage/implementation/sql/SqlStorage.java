@@ -0,0 +1,603 @@
+package cn.watchdog.troneconomy.storage.implementation.sql;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageMetadata;
+import cn.watchdog.troneconomy.storage.StorageType;
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.implementation.sql.connection.ConnectionFactory;
+import cn.watchdog.troneconomy.storage.implementation.sql.schema.SchemaMigrations;
+import cn.watchdog.troneconomy.storage.implementation.sql.schema.SchemaMigrator;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+import cn.watchdog.troneconomy.storage.misc.BucketDigest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link StorageImplementation} backed by one of the SQL dialects.
+ *
+ * <p>Several servers may share the same database. Instead of locking rows,
+ * every account row carries a {@code version} which is bumped on each write,
+ * and writes are compare-and-set on the version last seen by this server.
+ * A batch of writes is sent as one JDBC batch; rows whose update count is
+ * zero were changed by another server, and are re-read together and retried
+ * after a jittered backoff, without holding a connection.</p>
+ */
+public class SqlStorage implements StorageImplementation {
+	private static final int MAX_ATTEMPTS = 8;
+	private static final long BACKOFF_BASE_MILLIS = 5;
+	private static final int SCAN_FETCH_SIZE = 1_000;
+	private static final int SCAN_CHUNK = 5_000;
+
+	private static final String ACCOUNT_SELECT = "SELECT balance, version FROM {prefix}accounts WHERE uuid = ? AND currency = ?";
+	private static final String ACCOUNT_SELECT_MANY = "SELECT uuid, balance, version FROM {prefix}accounts WHERE currency = ? AND uuid IN ";
+	// uuid leads the unique index, so each page is a range scan
+	private static final String ACCOUNT_SELECT_PAGE = "SELECT uuid, balance FROM {prefix}accounts WHERE uuid > ? AND currency = ? ORDER BY uuid LIMIT ?";
+	private static final String ACCOUNT_SCAN = "SELECT uuid, balance FROM {prefix}accounts WHERE currency = ?";
+	private static final String ACCOUNT_SELECT_BUCKET = "SELECT uuid, balance FROM {prefix}accounts WHERE uuid >= ? AND uuid < ? AND currency = ?";
+	private static final String ACCOUNT_INSERT = "INSERT INTO {prefix}accounts (uuid, currency, balance, version) VALUES(?, ?, 0, 0)";
+	private static final String ACCOUNT_UPDATE = "UPDATE {prefix}accounts SET balance = ?, version = version + 1 WHERE uuid = ? AND currency = ? AND version = ?";
+
+	private final TronEconomy plugin;
+	private final ConnectionFactory connectionFactory;
+	private final String currency;
+
+	/**
+	 * The last row state seen by this server, used as the expected version
+	 * for the next write.
+	 */
+	private final Map<UUID, Row> rows = new ConcurrentHashMap<>();
+
+	public SqlStorage(TronEconomy plugin, ConnectionFactory connectionFactory, String currency) {
+		this.plugin = plugin;
+		this.connectionFactory = connectionFactory;
+		this.currency = currency;
+	}
+
+	@Override
+	public TronEconomy getPlugin() {
+		return this.plugin;
+	}
+
+	@Override
+	public String getImplementationName() {
+		return this.connectionFactory.getImplementationName();
+	}
+
+	public ConnectionFactory getConnectionFactory() {
+		return this.connectionFactory;
+	}
+
+	@Override
+	public void init() throws Exception {
+		this.connectionFactory.init(this.plugin);
+
+		// online migrations such as index builds carry on in the background, the tables are usable meanwhile
+		new SchemaMigrator(this.plugin, this.connectionFactory, SchemaMigrations.ALL).migrate();
+	}
+
+	@Override
+	public void shutdown() {
+		try {
+			this.connectionFactory.shutdown();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public StorageMetadata getMeta() {
+		StorageMetadata meta = new StorageMetadata();
+
+		boolean success = true;
+		long start = System.nanoTime();
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (Statement s = c.createStatement()) {
+				s.execute("SELECT 1");
+			}
+		} catch (SQLException e) {
+			success = false;
+		}
+		long duration = System.nanoTime() - start;
+
+		if (success) {
+			meta.ping((int) TimeUnit.NANOSECONDS.toMillis(duration));
+		}
+		return meta.connected(success);
+	}
+
+	@Override
+	public OptionalLong loadBalance(UUID uniqueId) throws SQLException {
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ACCOUNT_SELECT))) {
+				ps.setString(1, uniqueId.toString());
+				ps.setString(2, this.currency);
+				try (ResultSet rs = ps.executeQuery()) {
+					if (!rs.next()) {
+						this.rows.remove(uniqueId);
+						return OptionalLong.empty();
+					}
+					Row row = new Row(rs.getLong(1), rs.getLong(2));
+					this.rows.put(uniqueId, row);
+					return OptionalLong.of(row.balance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Accounts are ordered by the string form of their id.</p>
+	 */
+	@Override
+	public List<AccountBalance> loadBalances(UUID after, int limit) throws SQLException {
+		List<AccountBalance> balances = new ArrayList<>(Math.min(limit, 1024));
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ACCOUNT_SELECT_PAGE))) {
+				ps.setString(1, after == null ? "" : after.toString());
+				ps.setString(2, this.currency);
+				ps.setInt(3, limit);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						balances.add(new AccountBalance(UUID.fromString(rs.getString(1)), rs.getLong(2)));
+					}
+				}
+			}
+		}
+		return balances;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>The server databases stream the rows through a cursor, fetching a
+	 * batch per round trip. The flatfile databases share a single connection,
+	 * which a long scan must not hold, so they are read in chunks with
+	 * {@link #loadBalances(UUID, int)} instead.</p>
+	 */
+	@Override
+	public long scanBalances(BalanceVisitor visitor) throws Exception {
+		StorageType type = this.connectionFactory.getType();
+		if (type == StorageType.SQLITE || type == StorageType.H2) {
+			return scanInChunks(visitor);
+		}
+
+		try (Connection c = this.connectionFactory.getConnection()) {
+			// the PostgreSQL driver only uses a cursor inside a transaction
+			boolean autoCommit = c.getAutoCommit();
+			if (type == StorageType.POSTGRESQL) {
+				c.setAutoCommit(false);
+			}
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ACCOUNT_SCAN),
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				// Connector/J only streams with this value, otherwise it reads the whole result up front
+				ps.setFetchSize(type == StorageType.MYSQL ? Integer.MIN_VALUE : SCAN_FETCH_SIZE);
+				ps.setString(1, this.currency);
+				long visited = 0;
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						visitor.visit(UUID.fromString(rs.getString(1)), rs.getLong(2));
+						visited++;
+					}
+				}
+				return visited;
+			} finally {
+				if (type == StorageType.POSTGRESQL) {
+					c.rollback();
+					c.setAutoCommit(autoCommit);
+				}
+			}
+		}
+	}
+
+	private long scanInChunks(BalanceVisitor visitor) throws Exception {
+		long visited = 0;
+		UUID after = null;
+		while (true) {
+			List<AccountBalance> chunk = loadBalances(after, SCAN_CHUNK);
+			for (AccountBalance balance : chunk) {
+				visitor.visit(balance.getUniqueId(), balance.getBalance());
+			}
+			visited += chunk.size();
+			if (chunk.size() < SCAN_CHUNK) {
+				return visited;
+			}
+			after = chunk.get(chunk.size() - 1).getUniqueId();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>The digests are computed by the database, so only one row per
+	 * bucket is transferred.</p>
+	 */
+	@Override
+	public List<BucketDigest> loadDigests(String prefix) throws SQLException {
+		int depth = prefix.length() + 1;
+		String bucket = "SUBSTR(uuid, 1, " + depth + ")";
+		String low = "(balance % " + BucketDigest.SPLIT + ")";
+		String high = "(" + BulkOperation.divide(this.connectionFactory.getType(), "balance - " + low, String.valueOf(BucketDigest.SPLIT)) + ")";
+		String weight = weightExpression();
+		String query = "SELECT " + bucket + ", COUNT(*), SUM(" + low + "), SUM(" + high + "), " +
+				"SUM(" + low + " * " + weight + " % " + BucketDigest.MODULUS + "), " +
+				"SUM(" + high + " * " + weight + " % " + BucketDigest.MODULUS + ") " +
+				"FROM {prefix}accounts WHERE uuid >= ? AND uuid < ? AND currency = ? AND balance <> 0 GROUP BY " + bucket;
+
+		List<BucketDigest> digests = new ArrayList<>(16);
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(query))) {
+				ps.setString(1, prefix);
+				ps.setString(2, upperBound(prefix));
+				ps.setString(3, this.currency);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						digests.add(new BucketDigest(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getLong(4),
+								rs.getLong(5), rs.getLong(6)));
+					}
+				}
+			}
+		}
+		return digests;
+	}
+
+	/**
+	 * Gets an expression for {@link BucketDigest#weight(UUID)}, the value of
+	 * the last hex digits of the id plus one.
+	 */
+	private String weightExpression() {
+		String find = this.connectionFactory.getType() == StorageType.POSTGRESQL ? "STRPOS" : "INSTR";
+		StringBuilder expression = new StringBuilder("(1");
+		for (int i = 0; i < BucketDigest.WEIGHT_DIGITS; i++) {
+			int position = 37 - BucketDigest.WEIGHT_DIGITS + i;
+			long scale = 1L << ((BucketDigest.WEIGHT_DIGITS - 1 - i) * 4);
+			expression.append(" + (").append(find).append("('0123456789abcdef', SUBSTR(uuid, ").append(position)
+					.append(", 1)) - 1) * ").append(scale);
+		}
+		return expression.append(")").toString();
+	}
+
+	@Override
+	public List<AccountBalance> loadBucket(String prefix) throws SQLException {
+		List<AccountBalance> balances = new ArrayList<>();
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ACCOUNT_SELECT_BUCKET))) {
+				ps.setString(1, prefix);
+				ps.setString(2, upperBound(prefix));
+				ps.setString(3, this.currency);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						balances.add(new AccountBalance(UUID.fromString(rs.getString(1)), rs.getLong(2)));
+					}
+				}
+			}
+		}
+		return balances;
+	}
+
+	/**
+	 * Gets a string greater than every id starting with a prefix, so the
+	 * bucket can be read as a range scan of the unique index rather than
+	 * with {@code LIKE}.
+	 */
+	private static String upperBound(String prefix) {
+		// ids only hold hex digits and hyphens, which all sort before 'g'
+		return prefix + "g";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Each attempt commits the rows it could write, and accounts modified
+	 * concurrently by another server are retried in the next attempt. A
+	 * failure before an attempt commits, or accounts still conflicting after
+	 * the last attempt, are reported as a {@link PartialWriteException}, since
+	 * the earlier attempts have already been committed.</p>
+	 */
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws SQLException, PartialWriteException {
+		// group commit: one write per account, whatever the number of changes
+		Map<UUID, Long> pending = new LinkedHashMap<>();
+		for (BalanceChange change : changes) {
+			pending.merge(change.getUniqueId(), change.getDelta(), Math::addExact);
+		}
+		pending.values().removeIf(delta -> delta == 0);
+
+		List<BalanceChange> rejected = new ArrayList<>();
+		for (int attempt = 1; !pending.isEmpty(); attempt++) {
+			List<UUID> conflicts = null;
+			// not held during the backoff, other writers need the connection meanwhile
+			try (Connection c = this.connectionFactory.getConnection()) {
+				List<UUID> uniqueIds = new ArrayList<>(pending.keySet());
+				if (attempt == 1) {
+					// conflicts are re-read on later attempts, the first only reads rows never seen
+					uniqueIds.removeIf(this.rows::containsKey);
+				}
+				refreshRows(c, uniqueIds);
+				insertMissingRows(c, uniqueIds);
+				conflicts = writeBatch(c, pending, rejected);
+			} catch (UncertainCommitException e) {
+				throw e.getCause();
+			} catch (SQLException e) {
+				if (conflicts == null) {
+					// nothing of this attempt was committed
+					throw new PartialWriteException("Unable to write " + pending.size() + " account(s) to " +
+							getImplementationName(), toChanges(pending), rejected, e);
+				}
+				// only releasing the connection failed
+				e.printStackTrace();
+			}
+
+			pending.keySet().retainAll(conflicts);
+			if (pending.isEmpty()) {
+				break;
+			}
+			if (attempt == MAX_ATTEMPTS) {
+				throw new PartialWriteException("Unable to write " + pending.size() + " account(s) after " +
+						MAX_ATTEMPTS + " attempts due to concurrent modification", toChanges(pending), rejected, null);
+			}
+			backoff(attempt);
+		}
+		return rejected;
+	}
+
+	/**
+	 * Writes the given deltas in a single transaction, removing rejected
+	 * deltas from the map.
+	 *
+	 * @return the accounts which were modified concurrently, and were not written
+	 * @throws UncertainCommitException if the transaction may or may not have been committed
+	 * @throws SQLException if the transaction was not committed
+	 */
+	private List<UUID> writeBatch(Connection c, Map<UUID, Long> pending, List<BalanceChange> rejected) throws SQLException {
+		List<UUID> batched = new ArrayList<>(pending.size());
+		List<Row> expected = new ArrayList<>(pending.size());
+		List<Row> written = new ArrayList<>(pending.size());
+
+		// closed by hand, a failure to close must not hide whether the batch was committed
+		PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ACCOUNT_UPDATE));
+		try {
+			Iterator<Map.Entry<UUID, Long>> it = pending.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<UUID, Long> entry = it.next();
+				Row row = this.rows.get(entry.getKey());
+				long balance;
+				try {
+					balance = Math.addExact(row.balance, entry.getValue());
+				} catch (ArithmeticException e) {
+					balance = -1;
+				}
+				if (balance < 0) {
+					rejected.add(new BalanceChange(entry.getKey(), entry.getValue()));
+					it.remove();
+					continue;
+				}
+
+				ps.setLong(1, balance);
+				ps.setString(2, entry.getKey().toString());
+				ps.setString(3, this.currency);
+				ps.setLong(4, row.version);
+				ps.addBatch();
+				batched.add(entry.getKey());
+				expected.add(row);
+				written.add(new Row(balance, row.version + 1));
+			}
+
+			if (batched.isEmpty()) {
+				return batched;
+			}
+
+			// all or nothing, so a failed attempt has written none of its rows
+			int[] counts;
+			c.setAutoCommit(false);
+			try {
+				try {
+					counts = ps.executeBatch();
+				} catch (SQLException e) {
+					c.rollback();
+					throw e;
+				}
+				try {
+					c.commit();
+				} catch (SQLException e) {
+					throw new UncertainCommitException(e);
+				}
+			} finally {
+				try {
+					c.setAutoCommit(true);
+				} catch (SQLException e) {
+					// the pool resets it, and it must not hide whether the batch was committed
+					e.printStackTrace();
+				}
+			}
+
+			List<UUID> conflicts = new ArrayList<>();
+			List<UUID> unknown = new ArrayList<>();
+			for (int i = 0; i < counts.length; i++) {
+				UUID uniqueId = batched.get(i);
+				if (counts[i] == Statement.SUCCESS_NO_INFO) {
+					unknown.add(uniqueId);
+				} else if (counts[i] == 0) {
+					conflicts.add(uniqueId);
+				} else {
+					this.rows.put(uniqueId, written.get(i));
+				}
+			}
+			if (!unknown.isEmpty()) {
+				verifyWrites(c, unknown, batched, expected, written, conflicts);
+			}
+			return conflicts;
+		} finally {
+			try {
+				ps.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Re-reads rows whose update count the driver did not report, to tell
+	 * whether the compare-and-set matched.
+	 */
+	private void verifyWrites(Connection c, List<UUID> unknown, List<UUID> batched, List<Row> expected, List<Row> written, List<UUID> conflicts) throws SQLException {
+		Map<UUID, Row> found;
+		try {
+			found = selectRows(c, unknown);
+		} catch (SQLException e) {
+			throw new UncertainCommitException(e);
+		}
+
+		int uncertain = 0;
+		for (UUID uniqueId : unknown) {
+			int i = batched.indexOf(uniqueId);
+			Row row = found.get(uniqueId);
+			Row ours = written.get(i);
+			if (row != null && row.version == ours.version && row.balance == ours.balance) {
+				// only the rare write of the same balance by another server at the same version looks alike
+				this.rows.put(uniqueId, row);
+			} else if (row != null && (row.version == expected.get(i).version || row.version == ours.version)) {
+				// untouched, or taken by another server's write, so the version did not match when the update ran
+				conflicts.add(uniqueId);
+			} else {
+				// written again since, which may have overwritten ours
+				this.rows.remove(uniqueId);
+				uncertain++;
+			}
+		}
+		if (uncertain != 0) {
+			throw new UncertainCommitException(new SQLException("Unable to tell whether " + uncertain +
+					" account(s) were written to " + getImplementationName()));
+		}
+	}
+
+	private static List<BalanceChange> toChanges(Map<UUID, Long> deltas) {
+		List<BalanceChange> changes = new ArrayList<>(deltas.size());
+		for (Map.Entry<UUID, Long> entry : deltas.entrySet()) {
+			changes.add(new BalanceChange(entry.getKey(), entry.getValue()));
+		}
+		return changes;
+	}
+
+	private void refreshRows(Connection c, List<UUID> uniqueIds) throws SQLException {
+		if (uniqueIds.isEmpty()) {
+			return;
+		}
+
+		Map<UUID, Row> found = selectRows(c, uniqueIds);
+		for (UUID uniqueId : uniqueIds) {
+			Row row = found.get(uniqueId);
+			if (row == null) {
+				this.rows.remove(uniqueId);
+			} else {
+				this.rows.put(uniqueId, row);
+			}
+		}
+	}
+
+	private Map<UUID, Row> selectRows(Connection c, List<UUID> uniqueIds) throws SQLException {
+		StringBuilder sql = new StringBuilder(ACCOUNT_SELECT_MANY).append('(');
+		for (int i = 0; i < uniqueIds.size(); i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		sql.append(')');
+
+		Map<UUID, Row> found = new HashMap<>();
+		try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(sql.toString()))) {
+			ps.setString(1, this.currency);
+			for (int i = 0; i < uniqueIds.size(); i++) {
+				ps.setString(i + 2, uniqueIds.get(i).toString());
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					found.put(UUID.fromString(rs.getString(1)), new Row(rs.getLong(2), rs.getLong(3)));
+				}
+			}
+		}
+		return found;
+	}
+
+	private void insertMissingRows(Connection c, List<UUID> uniqueIds) throws SQLException {
+		List<UUID> missing = new ArrayList<>();
+		for (UUID uniqueId : uniqueIds) {
+			if (!this.rows.containsKey(uniqueId)) {
+				missing.add(uniqueId);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+
+		try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(ACCOUNT_INSERT))) {
+			for (UUID uniqueId : missing) {
+				ps.setString(1, uniqueId.toString());
+				ps.setString(2, this.currency);
+				try {
+					ps.executeUpdate();
+				} catch (SQLException e) {
+					// another server created the row first
+					if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+						throw e;
+					}
+				}
+			}
+		}
+
+		// pick up the created rows, including ones created by other servers
+		refreshRows(c, missing);
+	}
+
+	private static void backoff(int attempt) {
+		long max = BACKOFF_BASE_MILLIS << Math.min(attempt, 6);
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(max / 2, max + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Thrown when a commit failed in a way which leaves its outcome unknown,
+	 * so it must not be reported as unapplied.
+	 */
+	private static final class UncertainCommitException extends SQLException {
+		UncertainCommitException(SQLException cause) {
+			super(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+		}
+
+		@Override
+		public synchronized SQLException getCause() {
+			return (SQLException) super.getCause();
+		}
+	}
+
+	private static final class Row {
+		private final long balance;
+		private final long version;
+
+		Row(long balance, long version) {
+			this.balance = balance;
+			this.version = version;
+		}
+	}
+
+}
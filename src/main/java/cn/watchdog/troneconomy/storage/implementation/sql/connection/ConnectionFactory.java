@@ -0,0 +1,38 @@
+package cn.watchdog.troneconomy.storage.implementation.sql.connection;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageType;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Function;
+
+/**
+ * Provides JDBC connections for one of the SQL {@link StorageType}s.
+ */
+public interface ConnectionFactory {
+
+	String getImplementationName();
+
+	/**
+	 * Gets the storage type, used to select the SQL dialect.
+	 *
+	 * @return the storage type
+	 */
+	StorageType getType();
+
+	void init(TronEconomy plugin);
+
+	void shutdown() throws Exception;
+
+	/**
+	 * Gets a function which applies the table prefix and quoting rules of
+	 * this dialect to a statement.
+	 *
+	 * @return the statement processor
+	 */
+	Function<String, String> getStatementProcessor();
+
+	Connection getConnection() throws SQLException;
+
+}
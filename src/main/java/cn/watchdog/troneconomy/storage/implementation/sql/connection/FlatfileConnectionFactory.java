@@ -0,0 +1,117 @@
+package cn.watchdog.troneconomy.storage.implementation.sql.connection;
+
+import cn.watchdog.dependencies.Dependency;
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A {@link ConnectionFactory} for the file based SQL databases, SQLite and H2.
+ *
+ * <p>The drivers are loaded in an isolated classloader. A single connection
+ * is shared, and handed out to one caller at a time: closing the returned
+ * connection releases it to the next caller instead of closing it.</p>
+ */
+public class FlatfileConnectionFactory implements ConnectionFactory {
+	private final StorageType type;
+	private final Path file;
+	private final String prefix;
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	private Connection connection;
+
+	public FlatfileConnectionFactory(StorageType type, Path file, String prefix) {
+		if (type != StorageType.SQLITE && type != StorageType.H2) {
+			throw new IllegalArgumentException("Not a file based SQL type: " + type);
+		}
+		this.type = type;
+		this.file = file;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public String getImplementationName() {
+		return this.type.getName();
+	}
+
+	@Override
+	public StorageType getType() {
+		return this.type;
+	}
+
+	@Override
+	public void init(TronEconomy plugin) {
+		Dependency dependency = this.type == StorageType.SQLITE ? Dependency.SQLITE_DRIVER : Dependency.H2_DRIVER;
+		String driverClass = this.type == StorageType.SQLITE ? "org.sqlite.JDBC" : "org.h2.Driver";
+		String url = this.type == StorageType.SQLITE ?
+				"jdbc:sqlite:" + this.file.toAbsolutePath() :
+				"jdbc:h2:" + this.file.toAbsolutePath();
+
+		try {
+			ClassLoader classLoader = plugin.getDependencyManager().obtainClassLoaderWith(EnumSet.of(dependency));
+			Driver driver = (Driver) classLoader.loadClass(driverClass).getConstructor().newInstance();
+			this.connection = driver.connect(url, new Properties());
+		} catch (ReflectiveOperationException | SQLException e) {
+			throw new RuntimeException("Unable to open " + this.type.getName() + " database " + this.file, e);
+		}
+	}
+
+	@Override
+	public void shutdown() throws Exception {
+		this.lock.lock();
+		try {
+			if (this.connection != null) {
+				this.connection.close();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public Function<String, String> getStatementProcessor() {
+		return s -> s.replace("{prefix}", this.prefix);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (this.connection == null) {
+			throw new SQLException("Connection is not initialised");
+		}
+
+		this.lock.lock();
+		Connection connection = this.connection;
+		boolean[] released = {false};
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+			if (method.getName().equals("close") && method.getParameterCount() == 0) {
+				if (!released[0]) {
+					released[0] = true;
+					this.lock.unlock();
+				}
+				return null;
+			}
+			if (method.getName().equals("isClosed") && method.getParameterCount() == 0) {
+				return released[0] || connection.isClosed();
+			}
+			if (released[0]) {
+				throw new SQLException("Connection has been released");
+			}
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		});
+	}
+
+}
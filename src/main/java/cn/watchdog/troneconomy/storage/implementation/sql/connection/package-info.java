@@ -0,0 +1,4 @@
+/**
+ * SQL数据库连接的包。
+ */
+package cn.watchdog.troneconomy.storage.implementation.sql.connection;
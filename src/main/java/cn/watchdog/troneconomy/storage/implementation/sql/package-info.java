@@ -0,0 +1,4 @@
+/**
+ * SQL存储实现的包。
+ */
+package cn.watchdog.troneconomy.storage.implementation.sql;
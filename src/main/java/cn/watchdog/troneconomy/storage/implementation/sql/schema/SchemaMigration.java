@@ -0,0 +1,308 @@
+package cn.watchdog.troneconomy.storage.implementation.sql.schema;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageType;
+import cn.watchdog.troneconomy.storage.implementation.sql.connection.ConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * One versioned change to the SQL schema.
+ *
+ * <p>Offline migrations are applied during startup, before storage is used.
+ * Online migrations are applied in the background while the server runs, so
+ * must not block reads or writes of the tables they touch: indexes are built
+ * with {@code CREATE INDEX CONCURRENTLY} on PostgreSQL and
+ * {@code ALGORITHM=INPLACE, LOCK=NONE} on MySQL and MariaDB, and backfills
+ * update one primary key range at a time.</p>
+ */
+public abstract class SchemaMigration {
+	private final int version;
+	private final String description;
+
+	private SchemaMigration(int version, String description) {
+		if (version <= 0) {
+			throw new IllegalArgumentException("version must be positive");
+		}
+		this.version = version;
+		this.description = description;
+	}
+
+	/**
+	 * Creates an offline migration which runs statements in order.
+	 *
+	 * @param version     the version
+	 * @param description the description
+	 * @param statements  the unprocessed statements for each dialect
+	 * @return the migration
+	 */
+	public static SchemaMigration statements(int version, String description, Function<StorageType, List<String>> statements) {
+		return new SchemaMigration(version, description) {
+			@Override
+			public boolean isOnline() {
+				return false;
+			}
+
+			@Override
+			CompletableFuture<Void> apply(TronEconomy plugin, ConnectionFactory connectionFactory) throws SQLException {
+				try (Connection c = connectionFactory.getConnection()) {
+					try (Statement s = c.createStatement()) {
+						for (String statement : statements.apply(connectionFactory.getType())) {
+							s.execute(connectionFactory.getStatementProcessor().apply(statement));
+						}
+					}
+				}
+				return CompletableFuture.completedFuture(null);
+			}
+		};
+	}
+
+	/**
+	 * Creates an online migration which adds an index without blocking writes
+	 * to the table, where the dialect allows it. SQLite and H2 build the
+	 * index in one statement, which blocks writes for its duration.
+	 *
+	 * @param version the version
+	 * @param table   the unprefixed table name
+	 * @param name    the unprefixed index name
+	 * @param columns the indexed columns
+	 * @return the migration
+	 */
+	public static SchemaMigration index(int version, String table, String name, String... columns) {
+		String columnList = String.join(", ", columns);
+		return new SchemaMigration(version, "index " + name + " on " + table + " (" + columnList + ")") {
+			@Override
+			public boolean isOnline() {
+				return true;
+			}
+
+			@Override
+			CompletableFuture<Void> apply(TronEconomy plugin, ConnectionFactory connectionFactory) throws SQLException {
+				Function<String, String> processor = connectionFactory.getStatementProcessor();
+				StorageType type = connectionFactory.getType();
+				try (Connection c = connectionFactory.getConnection()) {
+					if (type == StorageType.MYSQL && indexExists(c, processor.apply("{prefix}" + table), processor.apply("{prefix}" + name))) {
+						return CompletableFuture.completedFuture(null);
+					}
+					// CONCURRENTLY cannot run inside a transaction
+					c.setAutoCommit(true);
+					if (type == StorageType.POSTGRESQL && isInvalidIndex(c, processor.apply("{prefix}" + name))) {
+						// left by an interrupted build, such as by a crash, which IF NOT EXISTS would skip
+						plugin.getLogger().warning("Rebuilding invalid index " + processor.apply("{prefix}" + name));
+						try (Statement s = c.createStatement()) {
+							s.execute(processor.apply("DROP INDEX CONCURRENTLY IF EXISTS {prefix}" + name));
+						}
+					}
+					try (Statement s = c.createStatement()) {
+						s.execute(processor.apply(createStatement(type, table, name, columnList)));
+					} catch (SQLException e) {
+						if (type == StorageType.POSTGRESQL) {
+							// a failed concurrent build leaves an invalid index, which IF NOT EXISTS would then skip
+							try (Statement s = c.createStatement()) {
+								s.execute(processor.apply("DROP INDEX CONCURRENTLY IF EXISTS {prefix}" + name));
+							} catch (SQLException dropException) {
+								e.addSuppressed(dropException);
+							}
+						}
+						throw e;
+					}
+				}
+				return CompletableFuture.completedFuture(null);
+			}
+		};
+	}
+
+	private static String createStatement(StorageType type, String table, String name, String columns) {
+		switch (type) {
+			case POSTGRESQL:
+				return "CREATE INDEX CONCURRENTLY IF NOT EXISTS {prefix}" + name + " ON {prefix}" + table + " (" + columns + ")";
+			case MYSQL:
+				// checked against information_schema first, MySQL has no IF NOT EXISTS for indexes
+				return "ALTER TABLE {prefix}" + table + " ADD INDEX {prefix}" + name + " (" + columns + "), ALGORITHM=INPLACE, LOCK=NONE";
+			case MARIADB:
+				return "ALTER TABLE {prefix}" + table + " ADD INDEX IF NOT EXISTS {prefix}" + name + " (" + columns + "), ALGORITHM=INPLACE, LOCK=NONE";
+			case SQLITE:
+			case H2:
+				return "CREATE INDEX IF NOT EXISTS {prefix}" + name + " ON {prefix}" + table + " (" + columns + ")";
+			default:
+				throw new IllegalArgumentException("Unsupported SQL type " + type);
+		}
+	}
+
+	private static boolean indexExists(Connection c, String table, String name) throws SQLException {
+		String query = "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?";
+		try (PreparedStatement ps = c.prepareStatement(query)) {
+			ps.setString(1, table);
+			ps.setString(2, name);
+			try (ResultSet rs = ps.executeQuery()) {
+				return rs.next() && rs.getInt(1) > 0;
+			}
+		}
+	}
+
+	/**
+	 * Gets if a PostgreSQL index exists but is marked invalid. An index is
+	 * also invalid while another server is still building it concurrently;
+	 * dropping it then fails that build, which is retried on its next start.
+	 */
+	private static boolean isInvalidIndex(Connection c, String name) throws SQLException {
+		String query = "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)";
+		try (PreparedStatement ps = c.prepareStatement(query)) {
+			ps.setString(1, name);
+			try (ResultSet rs = ps.executeQuery()) {
+				return rs.next() && !rs.getBoolean(1);
+			}
+		}
+	}
+
+	/**
+	 * Creates an online migration which runs an update over a table one
+	 * primary key range at a time, on the I/O executor.
+	 *
+	 * <p>The update takes the lower (inclusive) and upper (exclusive) id
+	 * bounds as its only parameters. An interrupted backfill is run again
+	 * from the start, so the update must only touch rows which have not
+	 * been backfilled yet.</p>
+	 *
+	 * @param version     the version
+	 * @param description the description
+	 * @param table       the unprefixed table name
+	 * @param update      the unprocessed update statement
+	 * @param chunkSize   the number of ids per chunk
+	 * @param throttle    the pause between chunks
+	 * @param unit        the unit of throttle
+	 * @return the migration
+	 */
+	public static SchemaMigration backfill(int version, String description, String table, String update, int chunkSize, long throttle, TimeUnit unit) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		return new SchemaMigration(version, description) {
+			@Override
+			public boolean isOnline() {
+				return true;
+			}
+
+			@Override
+			CompletableFuture<Void> apply(TronEconomy plugin, ConnectionFactory connectionFactory) throws SQLException {
+				long min;
+				long max;
+				try (Connection c = connectionFactory.getConnection()) {
+					try (PreparedStatement ps = c.prepareStatement(connectionFactory.getStatementProcessor()
+							.apply("SELECT MIN(id), MAX(id) FROM {prefix}" + table))) {
+						try (ResultSet rs = ps.executeQuery()) {
+							if (!rs.next()) {
+								return CompletableFuture.completedFuture(null);
+							}
+							min = rs.getLong(1);
+							if (rs.wasNull()) {
+								return CompletableFuture.completedFuture(null);
+							}
+							max = rs.getLong(2);
+						}
+					}
+				}
+
+				CompletableFuture<Void> future = new CompletableFuture<>();
+				new Backfill(plugin, connectionFactory, connectionFactory.getStatementProcessor().apply(update),
+						min, max, chunkSize, unit.toMillis(throttle), future).next();
+				return future;
+			}
+		};
+	}
+
+	public int getVersion() {
+		return this.version;
+	}
+
+	public String getDescription() {
+		return this.description;
+	}
+
+	/**
+	 * Gets if this migration runs in the background while the server is
+	 * live, rather than during startup.
+	 *
+	 * @return true if online
+	 */
+	public abstract boolean isOnline();
+
+	/**
+	 * Applies the migration. Blocks for every step except the chunks of a
+	 * backfill, which are scheduled on the I/O executor.
+	 *
+	 * @param plugin            the plugin
+	 * @param connectionFactory the connection factory
+	 * @return a future completed once the migration has been applied
+	 * @throws SQLException if a statement failed
+	 */
+	abstract CompletableFuture<Void> apply(TronEconomy plugin, ConnectionFactory connectionFactory) throws SQLException;
+
+	@Override
+	public String toString() {
+		return "v" + this.version + " (" + this.description + ")";
+	}
+
+	/**
+	 * The chunks of a running backfill, each in its own auto-committed
+	 * statement.
+	 */
+	private static final class Backfill {
+		private final TronEconomy plugin;
+		private final ConnectionFactory connectionFactory;
+		private final String update;
+		private final long maxId;
+		private final int chunkSize;
+		private final long throttleMillis;
+		private final CompletableFuture<Void> future;
+
+		private long cursor;
+
+		Backfill(TronEconomy plugin, ConnectionFactory connectionFactory, String update, long minId, long maxId, int chunkSize, long throttleMillis, CompletableFuture<Void> future) {
+			this.plugin = plugin;
+			this.connectionFactory = connectionFactory;
+			this.update = update;
+			this.cursor = minId;
+			this.maxId = maxId;
+			this.chunkSize = chunkSize;
+			this.throttleMillis = throttleMillis;
+			this.future = future;
+		}
+
+		void next() {
+			this.plugin.getScheduler().executeIo(this::runChunk);
+		}
+
+		private void runChunk() {
+			try {
+				long upper = Math.min(this.cursor + this.chunkSize, this.maxId + 1);
+				try (Connection c = this.connectionFactory.getConnection()) {
+					try (PreparedStatement ps = c.prepareStatement(this.update)) {
+						ps.setLong(1, this.cursor);
+						ps.setLong(2, upper);
+						ps.executeUpdate();
+					}
+				}
+				this.cursor = upper;
+			} catch (Throwable e) {
+				this.future.completeExceptionally(e);
+				return;
+			}
+
+			if (this.cursor > this.maxId) {
+				this.future.complete(null);
+			} else {
+				this.plugin.getScheduler().asyncLater(this::next, this.throttleMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+}
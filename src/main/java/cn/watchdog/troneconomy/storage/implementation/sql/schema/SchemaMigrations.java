@@ -0,0 +1,71 @@
+package cn.watchdog.troneconomy.storage.implementation.sql.schema;
+
+import cn.watchdog.troneconomy.storage.StorageType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The migrations of the TronEconomy schema. New migrations are appended with
+ * the next version, and released migrations are never changed.
+ */
+public final class SchemaMigrations {
+	public static final List<SchemaMigration> ALL = Collections.unmodifiableList(Arrays.asList(
+			// the baseline, which databases from before versioning already have
+			SchemaMigration.statements(1, "create the accounts table", type -> Collections.singletonList(createAccountsTable(type))),
+			// lets scans and bulk jobs filter by currency without reading every row
+			SchemaMigration.index(2, "accounts", "accounts_currency", "currency", "id"),
+			// invalidation messages between servers without Redis
+			SchemaMigration.statements(3, "create the messages table", type -> Collections.singletonList(createMessagesTable(type)))
+	));
+
+	private SchemaMigrations() {
+	}
+
+	private static String createAccountsTable(StorageType type) {
+		String id;
+		switch (type) {
+			case MYSQL:
+			case MARIADB:
+			case H2:
+				id = "id BIGINT AUTO_INCREMENT NOT NULL";
+				break;
+			case POSTGRESQL:
+				id = "id BIGSERIAL NOT NULL";
+				break;
+			case SQLITE:
+				// only INTEGER PRIMARY KEY aliases the rowid
+				return "CREATE TABLE IF NOT EXISTS {prefix}accounts (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+						"uuid VARCHAR(36) NOT NULL, currency VARCHAR(36) NOT NULL, balance BIGINT NOT NULL, " +
+						"version BIGINT NOT NULL DEFAULT 0, UNIQUE (uuid, currency))";
+			default:
+				throw new IllegalArgumentException("Unsupported SQL type " + type);
+		}
+		return "CREATE TABLE IF NOT EXISTS {prefix}accounts (" + id + ", uuid VARCHAR(36) NOT NULL, " +
+				"currency VARCHAR(36) NOT NULL, balance BIGINT NOT NULL, version BIGINT NOT NULL DEFAULT 0, " +
+				"PRIMARY KEY (id), UNIQUE (uuid, currency))";
+	}
+
+	private static String createMessagesTable(StorageType type) {
+		String id;
+		switch (type) {
+			case MYSQL:
+			case MARIADB:
+			case H2:
+				id = "id BIGINT AUTO_INCREMENT NOT NULL";
+				break;
+			case POSTGRESQL:
+				id = "id BIGSERIAL NOT NULL";
+				break;
+			case SQLITE:
+				return "CREATE TABLE IF NOT EXISTS {prefix}messages (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+						"time BIGINT NOT NULL, server VARCHAR(36) NOT NULL, msg TEXT NOT NULL)";
+			default:
+				throw new IllegalArgumentException("Unsupported SQL type " + type);
+		}
+		return "CREATE TABLE IF NOT EXISTS {prefix}messages (" + id + ", time BIGINT NOT NULL, " +
+				"server VARCHAR(36) NOT NULL, msg TEXT NOT NULL, PRIMARY KEY (id))";
+	}
+
+}
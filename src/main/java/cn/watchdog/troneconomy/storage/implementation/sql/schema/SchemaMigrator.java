@@ -0,0 +1,178 @@
+package cn.watchdog.troneconomy.storage.implementation.sql.schema;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.implementation.sql.connection.ConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Brings an SQL schema up to date by applying {@link SchemaMigration}s in
+ * version order, recording each in a {@code schema_version} table.
+ *
+ * <p>Pending offline migrations are applied during {@link #migrate()}. From
+ * the first pending online migration onwards, the rest are applied one
+ * after another on the I/O executor, so a slow index build or backfill never
+ * delays startup. A migration is only recorded once it has completed, and is
+ * applied again if the server stops part way, so every migration must be
+ * safe to repeat.</p>
+ */
+public class SchemaMigrator {
+	private static final String VERSION_TABLE_CREATE = "CREATE TABLE IF NOT EXISTS {prefix}schema_version (" +
+			"version INT NOT NULL, description VARCHAR(255) NOT NULL, applied_at BIGINT NOT NULL, PRIMARY KEY (version))";
+	private static final String VERSION_SELECT = "SELECT version FROM {prefix}schema_version";
+	private static final String VERSION_SELECT_ONE = "SELECT 1 FROM {prefix}schema_version WHERE version = ?";
+	private static final String VERSION_INSERT = "INSERT INTO {prefix}schema_version (version, description, applied_at) VALUES(?, ?, ?)";
+
+	private final TronEconomy plugin;
+	private final ConnectionFactory connectionFactory;
+	private final List<SchemaMigration> migrations;
+
+	/**
+	 * Creates a migrator.
+	 *
+	 * @param plugin            the plugin
+	 * @param connectionFactory the connection factory, which must already be initialised
+	 * @param migrations        the migrations, in increasing version order
+	 */
+	public SchemaMigrator(TronEconomy plugin, ConnectionFactory connectionFactory, List<SchemaMigration> migrations) {
+		for (int i = 1; i < migrations.size(); i++) {
+			if (migrations.get(i).getVersion() <= migrations.get(i - 1).getVersion()) {
+				throw new IllegalArgumentException("Migrations must be in increasing version order: " +
+						migrations.get(i - 1) + " then " + migrations.get(i));
+			}
+		}
+		this.plugin = plugin;
+		this.connectionFactory = connectionFactory;
+		this.migrations = migrations;
+	}
+
+	/**
+	 * Applies the pending offline migrations, and starts the online ones.
+	 *
+	 * @return a future completed once every migration has been applied
+	 * @throws SQLException if an offline migration failed
+	 */
+	public CompletableFuture<Void> migrate() throws SQLException {
+		Set<Integer> applied = loadAppliedVersions();
+
+		int latest = this.migrations.isEmpty() ? 0 : this.migrations.get(this.migrations.size() - 1).getVersion();
+		for (int version : applied) {
+			if (version > latest) {
+				this.plugin.getLogger().warning("The database schema is at version " + version + ", newer than " +
+						"this version of the plugin knows (" + latest + "). Has it been downgraded?");
+				break;
+			}
+		}
+
+		List<SchemaMigration> pending = new ArrayList<>();
+		for (SchemaMigration migration : this.migrations) {
+			if (!applied.contains(migration.getVersion())) {
+				pending.add(migration);
+			}
+		}
+
+		int i = 0;
+		for (; i < pending.size() && !pending.get(i).isOnline(); i++) {
+			SchemaMigration migration = pending.get(i);
+			this.plugin.getLogger().info("Applying schema migration " + migration);
+			migration.apply(this.plugin, this.connectionFactory).join();
+			record(migration);
+		}
+		if (i == pending.size()) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		List<SchemaMigration> background = pending.subList(i, pending.size());
+		this.plugin.getLogger().info("Applying " + background.size() + " schema migration(s) in the background");
+		Executor executor = this.plugin.getScheduler().io();
+		CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+		for (SchemaMigration migration : background) {
+			future = future
+					.thenComposeAsync(v -> start(migration), executor)
+					.thenRunAsync(() -> {
+						try {
+							record(migration);
+						} catch (SQLException e) {
+							throw new CompletionException(e);
+						}
+						this.plugin.getLogger().info("Applied schema migration " + migration);
+					}, executor);
+		}
+		return future.whenComplete((v, e) -> {
+			if (e != null) {
+				this.plugin.getLogger().severe("Error applying schema migrations, they will be retried on the next start");
+				e.printStackTrace();
+			}
+		});
+	}
+
+	private CompletableFuture<Void> start(SchemaMigration migration) {
+		this.plugin.getLogger().info("Applying schema migration " + migration);
+		try {
+			return migration.apply(this.plugin, this.connectionFactory);
+		} catch (SQLException e) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	private Set<Integer> loadAppliedVersions() throws SQLException {
+		Set<Integer> applied = new HashSet<>();
+		try (Connection c = this.connectionFactory.getConnection()) {
+			try (Statement s = c.createStatement()) {
+				s.execute(this.connectionFactory.getStatementProcessor().apply(VERSION_TABLE_CREATE));
+			}
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(VERSION_SELECT))) {
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						applied.add(rs.getInt(1));
+					}
+				}
+			}
+		}
+		return applied;
+	}
+
+	private void record(SchemaMigration migration) throws SQLException {
+		try (Connection c = this.connectionFactory.getConnection()) {
+			// another server sharing the database may have applied it at the same time
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(VERSION_SELECT_ONE))) {
+				ps.setInt(1, migration.getVersion());
+				try (ResultSet rs = ps.executeQuery()) {
+					if (rs.next()) {
+						return;
+					}
+				}
+			}
+			try (PreparedStatement ps = c.prepareStatement(this.connectionFactory.getStatementProcessor().apply(VERSION_INSERT))) {
+				ps.setInt(1, migration.getVersion());
+				ps.setString(2, migration.getDescription());
+				ps.setLong(3, System.currentTimeMillis());
+				ps.executeUpdate();
+			} catch (SQLException e) {
+				// recorded by the other server between the check and the insert
+				if (!isIntegrityViolation(e)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private static boolean isIntegrityViolation(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && state.startsWith("23");
+	}
+
+}
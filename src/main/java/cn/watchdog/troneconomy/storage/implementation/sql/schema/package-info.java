@@ -0,0 +1,4 @@
+/**
+ * SQL数据库结构迁移的包。
+ */
+package cn.watchdog.troneconomy.storage.implementation.sql.schema;
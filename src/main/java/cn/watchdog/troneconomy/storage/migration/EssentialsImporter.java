@@ -0,0 +1,331 @@
+package cn.watchdog.troneconomy.storage.migration;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Imports balances from an EssentialsX {@code userdata} directory, which
+ * holds one {@code <uuid>.yml} file per player.
+ *
+ * <p>Files are not parsed as YAML. Each one is scanned line by line until
+ * the top level balance key is found, which is all that is needed from
+ * them. Files are handed out in batches to the I/O executor, and each batch
+ * is written with a single {@link StorageImplementation#applyChanges(java.util.Collection)}
+ * call.</p>
+ *
+ * <p>Stored balances cannot be negative, so players in debt are not
+ * imported. They are logged and listed by {@link #getDebts()} instead, to be
+ * settled by hand.</p>
+ *
+ * <p>A batch which cannot be written does not stop the others. The import
+ * then fails once every batch has been tried, and can be run again with
+ * {@code resume} set, which imports only the accounts storage does not
+ * hold yet.</p>
+ */
+public class EssentialsImporter {
+	private static final String DEFAULT_BALANCE_KEY = "money";
+	private static final int FILES_PER_BATCH = 512;
+	private static final int MAX_BATCHES_IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 4;
+	private static final long PROGRESS_INTERVAL = 10_000;
+	private static final int MAX_LOGGED_FAILURES = 10;
+
+	private final TronEconomy plugin;
+	private final StorageImplementation storage;
+	private final String balancePrefix;
+	private final int fractionDigits;
+
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	// per run, reset when a run starts
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder imported = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder alreadyImported = new LongAdder();
+	private final LongAdder failedWrites = new LongAdder();
+	private final Queue<BalanceChange> debts = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger loggedFailures = new AtomicInteger(0);
+
+	public EssentialsImporter(TronEconomy plugin, StorageImplementation storage, int fractionDigits) {
+		this(plugin, storage, DEFAULT_BALANCE_KEY, fractionDigits);
+	}
+
+	/**
+	 * Creates an importer.
+	 *
+	 * @param plugin         the plugin
+	 * @param storage        the storage to import into, which must not hold any accounts
+	 * @param balanceKey     the top level key holding the balance
+	 * @param fractionDigits the number of minor unit digits of the currency
+	 */
+	public EssentialsImporter(TronEconomy plugin, StorageImplementation storage, String balanceKey, int fractionDigits) {
+		if (fractionDigits < 0) {
+			throw new IllegalArgumentException("fractionDigits must not be negative");
+		}
+		this.plugin = plugin;
+		this.storage = storage;
+		this.balancePrefix = balanceKey + ":";
+		this.fractionDigits = fractionDigits;
+	}
+
+	/**
+	 * Gets the players found in debt by the latest run, who were not
+	 * imported.
+	 *
+	 * @return the negative balances, in minor units
+	 */
+	public List<BalanceChange> getDebts() {
+		return new ArrayList<>(this.debts);
+	}
+
+	/**
+	 * Starts importing into empty storage.
+	 *
+	 * @param directory the userdata directory
+	 * @return a future completed with the number of imported accounts
+	 */
+	public CompletableFuture<Long> start(Path directory) {
+		return start(directory, false);
+	}
+
+	/**
+	 * Starts importing.
+	 *
+	 * <p>When resuming an import which failed part way, the storage need not
+	 * be empty, and accounts it already holds are skipped, since the earlier
+	 * run wrote them. Nothing else must have written to the storage in
+	 * between.</p>
+	 *
+	 * <p>An import can be resumed on the same importer, once the earlier run
+	 * has finished.</p>
+	 *
+	 * @param directory the userdata directory
+	 * @param resume    if resuming an earlier import
+	 * @return a future completed with the number of accounts imported by this run
+	 * @throws IllegalStateException if an import is already running
+	 */
+	public CompletableFuture<Long> start(Path directory, boolean resume) {
+		if (!this.running.compareAndSet(false, true)) {
+			throw new IllegalStateException("An import is already running");
+		}
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		try {
+			this.plugin.getScheduler().executeIo(() -> {
+				try {
+					future.complete(run(directory, resume));
+				} catch (Throwable e) {
+					this.plugin.getLogger().severe("Error importing balances from " + directory);
+					e.printStackTrace();
+					future.completeExceptionally(e);
+				} finally {
+					this.running.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.running.set(false);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private long run(Path directory, boolean resume) throws Exception {
+		reset();
+		if (!resume && !this.storage.loadBalances(null, 1).isEmpty()) {
+			throw new IllegalStateException("Cannot import into " + this.storage.getImplementationName() +
+					", it already holds accounts. Resume the import if an earlier one failed part way");
+		}
+
+		long start = System.currentTimeMillis();
+		this.plugin.getLogger().info("Importing balances from " + directory);
+
+		Executor executor = this.plugin.getScheduler().io();
+		Semaphore inFlight = new Semaphore(MAX_BATCHES_IN_FLIGHT);
+		List<CompletableFuture<Void>> batches = new ArrayList<>();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.yml")) {
+			List<Path> batch = new ArrayList<>(FILES_PER_BATCH);
+			for (Path file : files) {
+				batch.add(file);
+				if (batch.size() == FILES_PER_BATCH) {
+					batches.add(submit(batch, resume, executor, inFlight));
+					batch = new ArrayList<>(FILES_PER_BATCH);
+				}
+			}
+			if (!batch.isEmpty()) {
+				batches.add(submit(batch, resume, executor, inFlight));
+			}
+		}
+		CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).join();
+
+		long debt = 0;
+		for (BalanceChange change : this.debts) {
+			debt += change.getDelta();
+		}
+		this.plugin.getLogger().info("Finished importing from " + directory + " in " +
+				(System.currentTimeMillis() - start) + "ms: " + this.imported.sum() + " imported, " +
+				this.alreadyImported.sum() + " already imported, " + this.skipped.sum() + " skipped, " +
+				this.debts.size() + " in debt (" + debt + " not imported), " + this.failed.sum() + " failed");
+		if (this.failedWrites.sum() != 0) {
+			throw new IllegalStateException(this.failedWrites.sum() + " imported balance(s) could not be written. " +
+					"Resume the import to retry them");
+		}
+		return this.imported.sum();
+	}
+
+	private void reset() {
+		this.scanned.reset();
+		this.imported.reset();
+		this.skipped.reset();
+		this.failed.reset();
+		this.alreadyImported.reset();
+		this.failedWrites.reset();
+		this.debts.clear();
+		this.loggedFailures.set(0);
+	}
+
+	private CompletableFuture<Void> submit(List<Path> batch, boolean resume, Executor executor, Semaphore inFlight) throws InterruptedException {
+		// bounds the memory used by a large directory
+		inFlight.acquire();
+		try {
+			return CompletableFuture.runAsync(() -> importBatch(batch, resume), executor)
+					.whenComplete((result, e) -> inFlight.release());
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	private void importBatch(List<Path> batch, boolean resume) {
+		List<BalanceChange> changes = new ArrayList<>(batch.size());
+		for (Path file : batch) {
+			UUID uniqueId = parseUniqueId(file);
+			if (uniqueId == null) {
+				// named after the player, from before Essentials used ids
+				this.skipped.increment();
+				continue;
+			}
+			try {
+				OptionalLong balance = scanBalance(file);
+				if (!balance.isPresent() || balance.getAsLong() == 0) {
+					this.skipped.increment();
+				} else if (balance.getAsLong() < 0) {
+					BalanceChange debt = new BalanceChange(uniqueId, balance.getAsLong());
+					this.debts.add(debt);
+					this.plugin.getLogger().warning("Not importing " + file.getFileName() + ", the player is in debt: " + debt);
+				} else if (resume && this.storage.loadBalance(uniqueId).isPresent()) {
+					this.alreadyImported.increment();
+				} else {
+					changes.add(new BalanceChange(uniqueId, balance.getAsLong()));
+				}
+			} catch (Exception e) {
+				this.failed.increment();
+				if (this.loggedFailures.getAndIncrement() < MAX_LOGGED_FAILURES) {
+					this.plugin.getLogger().warning("Unable to read the balance in " + file + ": " + e);
+				}
+			}
+		}
+
+		try {
+			List<BalanceChange> rejected = this.storage.applyChanges(changes);
+			this.imported.add(changes.size() - rejected.size());
+			this.failed.add(rejected.size());
+		} catch (PartialWriteException e) {
+			int unapplied = e.getUnapplied().size();
+			this.imported.add(changes.size() - unapplied - e.getRejected().size());
+			this.failed.add(unapplied + e.getRejected().size());
+			this.failedWrites.add(unapplied);
+			logWriteFailure(unapplied, e);
+		} catch (Exception e) {
+			// some may have been written, a resumed import skips those
+			this.failed.add(changes.size());
+			this.failedWrites.add(changes.size());
+			logWriteFailure(changes.size(), e);
+		} finally {
+			reportProgress(batch.size());
+		}
+	}
+
+	private void logWriteFailure(int changes, Exception e) {
+		this.plugin.getLogger().severe("Unable to write " + changes + " imported balance(s), carrying on with the rest");
+		e.printStackTrace();
+	}
+
+	private void reportProgress(int files) {
+		long before = this.scanned.sum();
+		this.scanned.add(files);
+		if (before / PROGRESS_INTERVAL != (before + files) / PROGRESS_INTERVAL) {
+			this.plugin.getLogger().info("Import: " + (before + files) + " files scanned, " +
+					this.imported.sum() + " accounts imported");
+		}
+	}
+
+	/**
+	 * Scans a userdata file for the balance key.
+	 *
+	 * @param file the file
+	 * @return the balance in minor units, or empty if the file has none
+	 * @throws IOException if the file could not be read
+	 */
+	private OptionalLong scanBalance(Path file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// only unindented lines are top level keys
+				if (!line.startsWith(this.balancePrefix)) {
+					continue;
+				}
+				String value = line.substring(this.balancePrefix.length()).trim();
+				if (value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"') &&
+						value.charAt(value.length() - 1) == value.charAt(0)) {
+					value = value.substring(1, value.length() - 1);
+				}
+				if (value.isEmpty()) {
+					return OptionalLong.empty();
+				}
+				// round towards negative infinity, an import must never create money
+				return OptionalLong.of(new BigDecimal(value)
+						.movePointRight(this.fractionDigits)
+						.setScale(0, RoundingMode.FLOOR)
+						.longValueExact());
+			}
+		}
+		return OptionalLong.empty();
+	}
+
+	private static UUID parseUniqueId(Path file) {
+		String name = file.getFileName().toString();
+		if (name.length() != 36 + 4) {
+			return null;
+		}
+		try {
+			return UUID.fromString(name.substring(0, 36));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 从其他经济插件导入数据的包。
+ */
+package cn.watchdog.troneconomy.storage.migration;
@@ -0,0 +1,49 @@
+package cn.watchdog.troneconomy.storage.misc;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The stored balance of an account.
+ */
+public final class AccountBalance {
+	private final UUID uniqueId;
+	private final long balance;
+
+	public AccountBalance(UUID uniqueId, long balance) {
+		this.uniqueId = Objects.requireNonNull(uniqueId, "uniqueId");
+		this.balance = balance;
+	}
+
+	public UUID getUniqueId() {
+		return this.uniqueId;
+	}
+
+	/**
+	 * Gets the balance, in minor units.
+	 *
+	 * @return the balance
+	 */
+	public long getBalance() {
+		return this.balance;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof AccountBalance)) return false;
+		AccountBalance that = (AccountBalance) o;
+		return this.balance == that.balance && this.uniqueId.equals(that.uniqueId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.uniqueId, this.balance);
+	}
+
+	@Override
+	public String toString() {
+		return "AccountBalance(uniqueId=" + this.uniqueId + ", balance=" + this.balance + ")";
+	}
+
+}
@@ -0,0 +1,50 @@
+package cn.watchdog.troneconomy.storage.misc;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A pending change to the stored balance of an account.
+ */
+public final class BalanceChange {
+	private final UUID uniqueId;
+	private final long delta;
+
+	public BalanceChange(UUID uniqueId, long delta) {
+		this.uniqueId = Objects.requireNonNull(uniqueId, "uniqueId");
+		this.delta = delta;
+	}
+
+	public UUID getUniqueId() {
+		return this.uniqueId;
+	}
+
+	/**
+	 * Gets the amount to add to the stored balance, in minor units. Negative
+	 * for withdrawals.
+	 *
+	 * @return the delta
+	 */
+	public long getDelta() {
+		return this.delta;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof BalanceChange)) return false;
+		BalanceChange that = (BalanceChange) o;
+		return this.delta == that.delta && this.uniqueId.equals(that.uniqueId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.uniqueId, this.delta);
+	}
+
+	@Override
+	public String toString() {
+		return "BalanceChange(uniqueId=" + this.uniqueId + ", delta=" + this.delta + ")";
+	}
+
+}
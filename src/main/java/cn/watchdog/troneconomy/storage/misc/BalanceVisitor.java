@@ -0,0 +1,22 @@
+package cn.watchdog.troneconomy.storage.misc;
+
+import java.util.UUID;
+
+/**
+ * Receives each balance of a scan.
+ *
+ * @see cn.watchdog.troneconomy.storage.implementation.StorageImplementation#scanBalances(BalanceVisitor)
+ */
+@FunctionalInterface
+public interface BalanceVisitor {
+
+	/**
+	 * Visits a balance.
+	 *
+	 * @param uniqueId the account id
+	 * @param balance  the balance, in minor units
+	 * @throws Exception to stop the scan
+	 */
+	void visit(UUID uniqueId, long balance) throws Exception;
+
+}
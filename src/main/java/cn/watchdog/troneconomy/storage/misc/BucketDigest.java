@@ -0,0 +1,150 @@
+package cn.watchdog.troneconomy.storage.misc;
+
+import java.util.UUID;
+
+/**
+ * A digest of the balances in a bucket of accounts, for comparing two copies
+ * of the same data without transferring it.
+ *
+ * <p>Buckets are named by a prefix of the string form of the account id.
+ * The digest is built only from integer arithmetic every SQL dialect
+ * supports, so it can be computed by the database. Each balance is split
+ * at {@link #SPLIT} into a low and a high part, which stay exact however
+ * large the balance. The digest holds the count, the sums of both parts,
+ * and the sums of both parts weighted by the last seven hex digits of the
+ * id, each term reduced modulo the prime {@link #MODULUS}.</p>
+ *
+ * <p>Any change to the total changes the plain sums. Moving a balance
+ * between two accounts changes the weighted sums, unless both ids end in
+ * the same seven hex digits, which is a chance of one in 2<sup>28</sup>. As
+ * the modulus is a prime larger than any part or weight, no single change
+ * is hidden by the reduction.</p>
+ *
+ * <p>Accounts with a zero balance are left out, since an empty account and
+ * one which was never saved are the same.</p>
+ */
+public final class BucketDigest {
+	public static final long SPLIT = 1L << 31;
+	public static final long MODULUS = 4_294_967_311L;
+	/**
+	 * The number of trailing hex digits of the id used as the weight.
+	 */
+	public static final int WEIGHT_DIGITS = 7;
+
+	private final String prefix;
+	private final long count;
+	private final long lowSum;
+	private final long highSum;
+	private final long weightedLowSum;
+	private final long weightedHighSum;
+
+	public BucketDigest(String prefix, long count, long lowSum, long highSum, long weightedLowSum, long weightedHighSum) {
+		this.prefix = prefix;
+		this.count = count;
+		this.lowSum = lowSum;
+		this.highSum = highSum;
+		this.weightedLowSum = weightedLowSum;
+		this.weightedHighSum = weightedHighSum;
+	}
+
+	/**
+	 * Gets the weight of an account, from 1 to 2<sup>28</sup>. Matches the
+	 * last {@link #WEIGHT_DIGITS} hex digits of the id, plus one.
+	 *
+	 * @param uniqueId the account id
+	 * @return the weight
+	 */
+	public static long weight(UUID uniqueId) {
+		return (uniqueId.getLeastSignificantBits() & ((1L << (WEIGHT_DIGITS * 4)) - 1)) + 1;
+	}
+
+	/**
+	 * Gets the bucket of an account.
+	 *
+	 * @param uniqueId the account id
+	 * @param depth    the prefix length
+	 * @return the bucket prefix
+	 */
+	public static String bucketOf(UUID uniqueId, int depth) {
+		return uniqueId.toString().substring(0, depth);
+	}
+
+	public String getPrefix() {
+		return this.prefix;
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Gets if this digest covers the same balances as another, ignoring the
+	 * bucket name.
+	 *
+	 * @param other the other digest
+	 * @return true if they match
+	 */
+	public boolean matches(BucketDigest other) {
+		return other != null && this.count == other.count && this.lowSum == other.lowSum &&
+				this.highSum == other.highSum && this.weightedLowSum == other.weightedLowSum &&
+				this.weightedHighSum == other.weightedHighSum;
+	}
+
+	@Override
+	public String toString() {
+		return "BucketDigest(prefix=" + this.prefix + ", count=" + this.count + ", lowSum=" + this.lowSum +
+				", highSum=" + this.highSum + ", weightedLowSum=" + this.weightedLowSum +
+				", weightedHighSum=" + this.weightedHighSum + ")";
+	}
+
+	/**
+	 * Builds a digest one account at a time.
+	 */
+	public static final class Builder {
+		private long count = 0;
+		private long lowSum = 0;
+		private long highSum = 0;
+		private long weightedLowSum = 0;
+		private long weightedHighSum = 0;
+
+		public Builder add(UUID uniqueId, long balance) {
+			if (balance == 0) {
+				return this;
+			}
+			// the same truncating operations as the SQL, so negative balances match too
+			long low = balance % SPLIT;
+			long high = (balance - low) / SPLIT;
+			long weight = weight(uniqueId);
+			this.count++;
+			this.lowSum += low;
+			this.highSum += high;
+			this.weightedLowSum += low * weight % MODULUS;
+			this.weightedHighSum += high * weight % MODULUS;
+			return this;
+		}
+
+		/**
+		 * Adds every account of another builder.
+		 *
+		 * @param other the other builder
+		 * @return this builder
+		 */
+		public Builder add(Builder other) {
+			this.count += other.count;
+			this.lowSum += other.lowSum;
+			this.highSum += other.highSum;
+			this.weightedLowSum += other.weightedLowSum;
+			this.weightedHighSum += other.weightedHighSum;
+			return this;
+		}
+
+		public boolean isEmpty() {
+			return this.count == 0;
+		}
+
+		public BucketDigest build(String prefix) {
+			return new BucketDigest(prefix, this.count, this.lowSum, this.highSum, this.weightedLowSum, this.weightedHighSum);
+		}
+	}
+
+}
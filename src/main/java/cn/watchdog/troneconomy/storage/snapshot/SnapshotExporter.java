@@ -0,0 +1,160 @@
+package cn.watchdog.troneconomy.storage.snapshot;
+
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceVisitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes every balance held by a {@link StorageImplementation} to a
+ * {@link SnapshotFormat snapshot} file.
+ *
+ * <p>Balances are streamed from storage, and each chunk is compressed into
+ * a block on the given executor while the next chunk is read. Blocks are
+ * written in order through a {@link FileChannel}, with a bounded number in
+ * flight. The snapshot is written to a temporary file, and only moved into
+ * place once complete.</p>
+ */
+public class SnapshotExporter {
+	private static final int DEFAULT_BLOCK_ENTRIES = 4096;
+
+	private final StorageImplementation storage;
+	private final Executor executor;
+	private final int blockEntries;
+	private final int maxInFlight;
+
+	public SnapshotExporter(StorageImplementation storage, Executor executor) {
+		this(storage, executor, DEFAULT_BLOCK_ENTRIES, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * Creates an exporter.
+	 *
+	 * @param storage      the storage to read from
+	 * @param executor     the executor blocks are encoded on
+	 * @param blockEntries the number of accounts per block
+	 * @param maxInFlight  the maximum number of blocks being encoded at once
+	 */
+	public SnapshotExporter(StorageImplementation storage, Executor executor, int blockEntries, int maxInFlight) {
+		if (blockEntries <= 0 || maxInFlight <= 0) {
+			throw new IllegalArgumentException("blockEntries and maxInFlight must be positive");
+		}
+		this.storage = storage;
+		this.executor = executor;
+		this.blockEntries = blockEntries;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Exports a snapshot. Blocks until complete, so should be called from an
+	 * I/O thread.
+	 *
+	 * @param file the file to write
+	 * @return the number of accounts written
+	 * @throws Exception if the storage could not be read, or the file written
+	 */
+	public long export(Path file) throws Exception {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		long total = 0;
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(SnapshotFormat.HEADER_SIZE);
+			header.putInt(SnapshotFormat.MAGIC);
+			header.put(SnapshotFormat.VERSION);
+			header.putLong(System.currentTimeMillis());
+			header.flip();
+			writeFully(channel, header);
+
+			BlockWriter writer = new BlockWriter(channel);
+			total = this.storage.scanBalances(writer);
+			writer.finish();
+
+			ByteBuffer end = ByteBuffer.allocate(SnapshotFormat.END_SIZE);
+			end.putInt(0);
+			end.putLong(total);
+			end.flip();
+			writeFully(channel, end);
+			channel.force(true);
+		} catch (Exception e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return total;
+	}
+
+	private static ByteBuffer join(CompletableFuture<ByteBuffer> future) throws Exception {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Groups scanned balances into blocks, and writes encoded blocks in order.
+	 */
+	private final class BlockWriter implements BalanceVisitor {
+		private final FileChannel channel;
+		private final Deque<CompletableFuture<ByteBuffer>> inFlight = new ArrayDeque<>();
+		private List<AccountBalance> chunk;
+
+		BlockWriter(FileChannel channel) {
+			this.channel = channel;
+			this.chunk = new ArrayList<>(SnapshotExporter.this.blockEntries);
+		}
+
+		@Override
+		public void visit(UUID uniqueId, long balance) throws Exception {
+			this.chunk.add(new AccountBalance(uniqueId, balance));
+			if (this.chunk.size() == SnapshotExporter.this.blockEntries) {
+				submit();
+			}
+		}
+
+		private void submit() throws Exception {
+			if (this.inFlight.size() >= SnapshotExporter.this.maxInFlight) {
+				writeFully(this.channel, join(this.inFlight.poll()));
+			}
+			List<AccountBalance> block = this.chunk;
+			this.inFlight.add(CompletableFuture.supplyAsync(() -> SnapshotFormat.encodeBlock(block), SnapshotExporter.this.executor));
+			this.chunk = new ArrayList<>(SnapshotExporter.this.blockEntries);
+		}
+
+		void finish() throws Exception {
+			if (!this.chunk.isEmpty()) {
+				submit();
+			}
+			while (!this.inFlight.isEmpty()) {
+				writeFully(this.channel, join(this.inFlight.poll()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+package cn.watchdog.troneconomy.storage.snapshot;
+
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The binary snapshot format.
+ *
+ * <pre>
+ * file   := header block* end
+ * header := magic "TRSN" | version (u8) | created at, epoch millis (i64)
+ * block  := entries (i32, &gt; 0) | raw length (i32) | compressed length (i32) |
+ *           CRC32 of the compressed bytes (i32) | GZIP compressed entries
+ * entry  := id, most significant bits (i64) | id, least significant bits (i64) |
+ *           balance (zigzag varint)
+ * end    := 0 (i32) | total entries (i64)
+ * </pre>
+ *
+ * <p>All fixed width values are big endian. Since each block carries the
+ * checksum of its compressed bytes, a file can be verified without
+ * inflating it.</p>
+ */
+public final class SnapshotFormat {
+	static final int MAGIC = 0x5452534E; // "TRSN"
+	static final byte VERSION = 1;
+	static final int HEADER_SIZE = 4 + 1 + 8;
+	static final int BLOCK_HEADER_SIZE = 4 + 4 + 4 + 4;
+	static final int END_SIZE = 4 + 8;
+
+	private static final int ENTRY_MAX_SIZE = 8 + 8 + 10;
+
+	private SnapshotFormat() {}
+
+	/**
+	 * Encodes a block, including its header.
+	 *
+	 * @param balances the entries
+	 * @return the encoded block, ready to be written
+	 */
+	static ByteBuffer encodeBlock(List<AccountBalance> balances) {
+		ByteBuffer raw = ByteBuffer.allocate(balances.size() * ENTRY_MAX_SIZE);
+		for (AccountBalance balance : balances) {
+			raw.putLong(balance.getUniqueId().getMostSignificantBits());
+			raw.putLong(balance.getUniqueId().getLeastSignificantBits());
+			writeVarLong(raw, balance.getBalance());
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.position() / 2);
+		try (GZIPOutputStream out = new FastGzipOutputStream(compressed)) {
+			out.write(raw.array(), 0, raw.position());
+		} catch (IOException e) {
+			// in memory, cannot happen
+			throw new IllegalStateException(e);
+		}
+		byte[] bytes = compressed.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + bytes.length);
+		block.putInt(balances.size());
+		block.putInt(raw.position());
+		block.putInt(bytes.length);
+		block.putInt((int) crc.getValue());
+		block.put(bytes);
+		block.flip();
+		return block;
+	}
+
+	/**
+	 * Checks the compressed bytes of a block against its checksum.
+	 *
+	 * @param compressed the compressed bytes
+	 * @param checksum   the checksum from the block header
+	 * @throws IOException if they do not match
+	 */
+	static void verifyBlock(byte[] compressed, int checksum) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(compressed, 0, compressed.length);
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("Block checksum mismatch, expected " + Integer.toHexString(checksum) +
+					" but was " + Long.toHexString(crc.getValue()));
+		}
+	}
+
+	/**
+	 * Decodes the entries of a verified block.
+	 *
+	 * @param compressed the compressed bytes
+	 * @param entries    the number of entries
+	 * @param rawLength  the uncompressed length
+	 * @return the entries
+	 * @throws IOException if the block is malformed
+	 */
+	static List<AccountBalance> decodeBlock(byte[] compressed, int entries, int rawLength) throws IOException {
+		byte[] raw = new byte[rawLength];
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			int read = 0;
+			while (read < rawLength) {
+				int n = in.read(raw, read, rawLength - read);
+				if (n < 0) {
+					throw new IOException("Block is shorter than its header states");
+				}
+				read += n;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(raw);
+		List<AccountBalance> balances = new ArrayList<>(entries);
+		for (int i = 0; i < entries; i++) {
+			long most = buffer.getLong();
+			long least = buffer.getLong();
+			balances.add(new AccountBalance(new UUID(most, least), readVarLong(buffer)));
+		}
+		if (buffer.hasRemaining()) {
+			throw new IOException("Block has " + buffer.remaining() + " trailing bytes");
+		}
+		return balances;
+	}
+
+	/**
+	 * Ids are random and barely compress, so favour speed over ratio.
+	 */
+	private static final class FastGzipOutputStream extends GZIPOutputStream {
+		FastGzipOutputStream(OutputStream out) throws IOException {
+			super(out);
+			this.def.setLevel(Deflater.BEST_SPEED);
+		}
+	}
+
+	static void writeVarLong(ByteBuffer buffer, long value) {
+		// zigzag, so small negative values stay small
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	static long readVarLong(ByteBuffer buffer) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (v >>> 1) ^ -(v & 1);
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+}
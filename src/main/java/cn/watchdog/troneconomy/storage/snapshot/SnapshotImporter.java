@@ -0,0 +1,131 @@
+package cn.watchdog.troneconomy.storage.snapshot;
+
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.misc.AccountBalance;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads {@link SnapshotFormat snapshot} files, either to verify them or to
+ * restore them into a {@link StorageImplementation}.
+ */
+public class SnapshotImporter {
+	private final StorageImplementation storage;
+
+	public SnapshotImporter(StorageImplementation storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Checks every block checksum of a snapshot, without decompressing it.
+	 *
+	 * @param file the snapshot
+	 * @return the number of accounts in the snapshot
+	 * @throws Exception if the snapshot is damaged or cannot be read
+	 */
+	public static long verify(Path file) throws Exception {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(channel, null, false);
+		}
+	}
+
+	/**
+	 * Restores a snapshot. Balances are restored by applying them as changes,
+	 * so the storage must not hold any accounts yet, unless resuming.
+	 *
+	 * <p>A restore which failed part way leaves the blocks before the failure
+	 * applied. Restoring the same snapshot again with {@code resume} set
+	 * skips the accounts storage already holds, and applies the rest.</p>
+	 *
+	 * @param file   the snapshot
+	 * @param resume if resuming an earlier restore
+	 * @return the number of accounts in the snapshot, including any restored by an earlier run
+	 * @throws Exception if the snapshot is damaged, or the storage could not be written
+	 */
+	public long restore(Path file, boolean resume) throws Exception {
+		if (!resume && !this.storage.loadBalances(null, 1).isEmpty()) {
+			throw new IllegalStateException("Cannot restore a snapshot into " +
+					this.storage.getImplementationName() + ", it already holds accounts. " +
+					"Resume the restore if an earlier one failed part way");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(channel, this.storage, resume);
+		}
+	}
+
+	private static long read(FileChannel channel, StorageImplementation target, boolean resume) throws Exception {
+		ByteBuffer header = readFully(channel, SnapshotFormat.HEADER_SIZE);
+		if (header.getInt() != SnapshotFormat.MAGIC) {
+			throw new IOException("Not a snapshot file");
+		}
+		byte version = header.get();
+		if (version != SnapshotFormat.VERSION) {
+			throw new IOException("Unsupported snapshot version " + version);
+		}
+
+		long total = 0;
+		while (true) {
+			int entries = readFully(channel, 4).getInt();
+			if (entries == 0) {
+				break;
+			}
+			ByteBuffer blockHeader = readFully(channel, SnapshotFormat.BLOCK_HEADER_SIZE - 4);
+			int rawLength = blockHeader.getInt();
+			int compressedLength = blockHeader.getInt();
+			int checksum = blockHeader.getInt();
+			if (entries < 0 || rawLength < 0 || compressedLength < 0) {
+				throw new IOException("Malformed block header");
+			}
+
+			byte[] compressed = readFully(channel, compressedLength).array();
+			SnapshotFormat.verifyBlock(compressed, checksum);
+			total += entries;
+
+			if (target != null) {
+				List<AccountBalance> balances = SnapshotFormat.decodeBlock(compressed, entries, rawLength);
+				List<BalanceChange> changes = new ArrayList<>(balances.size());
+				for (AccountBalance balance : balances) {
+					// applying it again would add the balance twice
+					if (resume && target.loadBalance(balance.getUniqueId()).isPresent()) {
+						continue;
+					}
+					changes.add(new BalanceChange(balance.getUniqueId(), balance.getBalance()));
+				}
+				if (changes.isEmpty()) {
+					continue;
+				}
+				List<BalanceChange> rejected = target.applyChanges(changes);
+				if (!rejected.isEmpty()) {
+					throw new IOException(rejected.size() + " account(s) rejected by " +
+							target.getImplementationName() + ", e.g. " + rejected.get(0));
+				}
+			}
+		}
+
+		long expected = readFully(channel, 8).getLong();
+		if (expected != total) {
+			throw new IOException("Snapshot holds " + total + " account(s), but its trailer states " + expected);
+		}
+		return total;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Snapshot is truncated");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+}
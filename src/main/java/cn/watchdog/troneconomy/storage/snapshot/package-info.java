@@ -0,0 +1,4 @@
+/**
+ * 经济数据二进制快照的包。
+ */
+package cn.watchdog.troneconomy.storage.snapshot;
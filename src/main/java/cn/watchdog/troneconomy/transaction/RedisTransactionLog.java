@@ -0,0 +1,243 @@
+package cn.watchdog.troneconomy.transaction;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.ledger.TransactionListener;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.params.XAddParams;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes every transaction applied by the ledger to a Redis Stream, from
+ * which other servers and offline processors read through
+ * {@link RedisTransactionLogConsumer}s.
+ *
+ * <p>Transactions are queued without blocking the ledger, and a single
+ * drainer on the I/O executor appends them with one {@code XADD} pipeline per
+ * batch. Each append trims the stream to roughly its maximum length, so the
+ * stream never needs a separate cleanup job. While Redis is unreachable the
+ * drainer backs off, and transactions beyond the queue limit are dropped and
+ * counted rather than exhausting memory.</p>
+ *
+ * <p>Transactions are published once the ledger has applied them, which
+ * with write-behind storage is before they are durable. A transaction can
+ * therefore be published and then lost from storage if the server stops
+ * before its flush. Delivery is at least once: when a pipeline fails part
+ * way the whole batch is sent again, so entries can appear twice and
+ * consumers must deduplicate by the {@value #FIELD_ID} field.</p>
+ */
+public class RedisTransactionLog implements TransactionListener {
+	private static final int BATCH_SIZE = 500;
+	private static final int DEFAULT_MAX_QUEUED = 100_000;
+	private static final long MIN_BACKOFF_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+	static final String FIELD_ID = "tx";
+	static final String FIELD_TYPE = "type";
+	static final String FIELD_SOURCE = "source";
+	static final String FIELD_TARGET = "target";
+	static final String FIELD_AMOUNT = "amount";
+	static final String FIELD_TIME = "time";
+
+	private final TronEconomy plugin;
+	private final JedisPool pool;
+	private final String key;
+	private final long maxLength;
+	private final int maxQueued;
+
+	private final Queue<TransactionRecord> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final LongAdder dropped = new LongAdder();
+
+	// only touched by the drainer
+	private List<TransactionRecord> failedBatch = null;
+	private long backoffMillis = 0;
+	// set before draining is cleared, so no drain starts during the backoff
+	private final AtomicBoolean retryPending = new AtomicBoolean(false);
+
+	public RedisTransactionLog(TronEconomy plugin, JedisPool pool, String key, long maxLength) {
+		this(plugin, pool, key, maxLength, DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * Creates a log.
+	 *
+	 * @param plugin    the plugin
+	 * @param pool      the Redis pool
+	 * @param key       the stream key
+	 * @param maxLength the approximate number of entries to keep in the stream
+	 * @param maxQueued the number of unpublished transactions to hold while Redis is unreachable
+	 */
+	public RedisTransactionLog(TronEconomy plugin, JedisPool pool, String key, long maxLength, int maxQueued) {
+		if (maxLength <= 0 || maxQueued <= 0) {
+			throw new IllegalArgumentException("maxLength and maxQueued must be positive");
+		}
+		this.plugin = plugin;
+		this.pool = pool;
+		this.key = key;
+		this.maxLength = maxLength;
+		this.maxQueued = maxQueued;
+	}
+
+	@Override
+	public void onTransaction(TransactionRecord record) {
+		if (this.queued.incrementAndGet() > this.maxQueued) {
+			this.queued.decrementAndGet();
+			this.dropped.increment();
+			return;
+		}
+		this.queue.offer(record);
+		scheduleDrain();
+	}
+
+	public int getQueued() {
+		return this.queued.get();
+	}
+
+	/**
+	 * Gets the number of transactions which were not published because the
+	 * queue was full.
+	 *
+	 * @return the number of transactions
+	 */
+	public long getDropped() {
+		return this.dropped.sum();
+	}
+
+	private void scheduleDrain() {
+		// a pending retry will drain once its backoff has passed
+		if (this.retryPending.get() || !this.draining.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			this.plugin.getScheduler().executeIo(this::drain);
+		} catch (RejectedExecutionException e) {
+			// the next transaction or retry will try again
+			this.draining.set(false);
+		}
+	}
+
+	private void drain() {
+		boolean failed = false;
+		try {
+			while (this.failedBatch != null || !this.queue.isEmpty()) {
+				if (!publishNextBatch()) {
+					failed = true;
+					this.retryPending.set(true);
+					break;
+				}
+			}
+		} finally {
+			this.draining.set(false);
+		}
+
+		if (failed) {
+			try {
+				this.plugin.getScheduler().asyncLater(() -> {
+					this.retryPending.set(false);
+					scheduleDrain();
+				}, this.backoffMillis, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// the next transaction will try again
+				this.retryPending.set(false);
+			}
+		} else if (!this.queue.isEmpty()) {
+			// queued after the last check, while still marked as draining
+			scheduleDrain();
+		}
+	}
+
+	/**
+	 * Publishes one batch. Only called by the drainer.
+	 *
+	 * @return false if Redis failed and the batch was kept for a retry
+	 */
+	private boolean publishNextBatch() {
+		List<TransactionRecord> batch = this.failedBatch;
+		this.failedBatch = null;
+		if (batch == null) {
+			batch = new ArrayList<>(BATCH_SIZE);
+			TransactionRecord record;
+			while (batch.size() < BATCH_SIZE && (record = this.queue.poll()) != null) {
+				batch.add(record);
+			}
+		}
+
+		XAddParams params = XAddParams.xAddParams().maxLen(this.maxLength).approximateTrimming();
+		try (Jedis jedis = this.pool.getResource(); Pipeline pipeline = jedis.pipelined()) {
+			for (TransactionRecord record : batch) {
+				pipeline.xadd(this.key, params, encode(record));
+			}
+			pipeline.sync();
+		} catch (RuntimeException e) {
+			// retried first, so the stream stays in the order transactions were applied. Entries
+			// the pipeline had already added are sent again, see the class documentation
+			this.failedBatch = batch;
+			this.backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(MIN_BACKOFF_MILLIS, this.backoffMillis * 2));
+			this.plugin.getLogger().warning("Unable to publish " + batch.size() + " transaction(s) to " + this.key +
+					", retrying in " + this.backoffMillis + "ms");
+			e.printStackTrace();
+			return false;
+		}
+		this.queued.addAndGet(-batch.size());
+		this.backoffMillis = 0;
+		return true;
+	}
+
+	static Map<String, String> encode(TransactionRecord record) {
+		Map<String, String> fields = new HashMap<>(8);
+		fields.put(FIELD_ID, record.getTransactionId().toString());
+		fields.put(FIELD_TYPE, record.getType().name());
+		if (record.getSource() != null) {
+			fields.put(FIELD_SOURCE, record.getSource().toString());
+		}
+		if (record.getTarget() != null) {
+			fields.put(FIELD_TARGET, record.getTarget().toString());
+		}
+		fields.put(FIELD_AMOUNT, Long.toString(record.getAmount()));
+		fields.put(FIELD_TIME, Long.toString(record.getTimestamp()));
+		return fields;
+	}
+
+	/**
+	 * Reads a transaction from the fields of a stream entry.
+	 *
+	 * @param fields the fields
+	 * @return the transaction
+	 * @throws IllegalArgumentException if the fields are not a transaction
+	 */
+	static TransactionRecord decode(Map<String, String> fields) {
+		String id = fields.get(FIELD_ID);
+		String type = fields.get(FIELD_TYPE);
+		String amount = fields.get(FIELD_AMOUNT);
+		String time = fields.get(FIELD_TIME);
+		if (id == null || type == null || amount == null || time == null) {
+			throw new IllegalArgumentException("Missing fields in " + fields);
+		}
+		String source = fields.get(FIELD_SOURCE);
+		String target = fields.get(FIELD_TARGET);
+		return new TransactionRecord(
+				UUID.fromString(id),
+				TransactionRecord.Type.valueOf(type),
+				source == null ? null : UUID.fromString(source),
+				target == null ? null : UUID.fromString(target),
+				Long.parseLong(amount),
+				Long.parseLong(time)
+		);
+	}
+
+}
@@ -0,0 +1,215 @@
+package cn.watchdog.troneconomy.transaction;
+
+import cn.watchdog.scheduler.SchedulerAdapter;
+import cn.watchdog.scheduler.SchedulerTask;
+import cn.watchdog.troneconomy.TronEconomy;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the transactions published by a {@link RedisTransactionLog} as a
+ * member of a consumer group.
+ *
+ * <p>Each group receives every transaction once, shared between its
+ * consumers, so several servers can split the work of one processor, and
+ * separate processors (analytics, audit, chat relays) each use their own
+ * group. Entries are acknowledged once the handler has returned. If it
+ * throws, or the consumer stops before acknowledging, the entries stay
+ * pending and are handed to the same consumer again, first thing on its next
+ * poll or start. The log itself may also publish a transaction twice, so
+ * handlers must deduplicate by {@link TransactionRecord#getTransactionId()}.
+ * Transactions are published before they are durable in storage, see
+ * {@link RedisTransactionLog}.</p>
+ *
+ * <p>Polling does not block: each poll reads batches until the stream is
+ * caught up, on the I/O executor. Entries trimmed from the stream while a
+ * consumer was down are lost to it, so the maximum length of the log should
+ * cover the longest expected downtime.</p>
+ */
+public class RedisTransactionLogConsumer {
+	private static final int BATCH_SIZE = 500;
+
+	private final TronEconomy plugin;
+	private final JedisPool pool;
+	private final String key;
+	private final String group;
+	private final String consumer;
+	private final Handler handler;
+
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	// guards task and stopped, as the task is only scheduled once the group exists
+	private final Object lifecycleLock = new Object();
+	private SchedulerTask task;
+	private boolean stopped = false;
+
+	// guarded by running, starts true to recover entries left pending by a previous run
+	private boolean readPending = true;
+
+	/**
+	 * Creates a consumer.
+	 *
+	 * @param plugin   the plugin
+	 * @param pool     the Redis pool
+	 * @param key      the stream key
+	 * @param group    the consumer group, which is created if it does not exist
+	 * @param consumer the name of this consumer within the group, which must be stable across restarts
+	 * @param handler  the handler
+	 */
+	public RedisTransactionLogConsumer(TronEconomy plugin, JedisPool pool, String key, String group, String consumer, Handler handler) {
+		this.plugin = plugin;
+		this.pool = pool;
+		this.key = key;
+		this.group = group;
+		this.consumer = consumer;
+		this.handler = handler;
+	}
+
+	/**
+	 * Starts polling. A group created now only receives transactions
+	 * published from now on. A consumer can only be started once.
+	 *
+	 * @param interval the time between polls
+	 * @param unit     the unit of interval
+	 */
+	public void start(long interval, TimeUnit unit) {
+		if (!this.started.compareAndSet(false, true)) {
+			throw new IllegalStateException("Already started");
+		}
+		SchedulerAdapter scheduler = this.plugin.getScheduler();
+		scheduler.executeIo(() -> {
+			try (Jedis jedis = this.pool.getResource()) {
+				jedis.xgroupCreate(this.key, this.group, StreamEntryID.LAST_ENTRY, true);
+			} catch (RuntimeException e) {
+				boolean exists = e instanceof JedisDataException && e.getMessage() != null && e.getMessage().startsWith("BUSYGROUP");
+				if (!exists) {
+					this.plugin.getLogger().severe("Unable to create the consumer group " + this.group + " of " + this.key);
+					e.printStackTrace();
+					return;
+				}
+			}
+			synchronized (this.lifecycleLock) {
+				// stopped while the group was being created
+				if (!this.stopped) {
+					this.task = scheduler.asyncRepeating(() -> scheduler.executeIo(this::poll), interval, unit);
+				}
+			}
+		});
+	}
+
+	public void stop() {
+		synchronized (this.lifecycleLock) {
+			this.stopped = true;
+			if (this.task != null) {
+				this.task.cancel();
+				this.task = null;
+			}
+		}
+	}
+
+	private void poll() {
+		// a slow handler must not overlap with the next poll
+		if (!this.running.compareAndSet(false, true)) {
+			return;
+		}
+		try (Jedis jedis = this.pool.getResource()) {
+			while (true) {
+				// pending entries are read from the start of the history of this consumer
+				StreamEntryID from = this.readPending ? new StreamEntryID() : StreamEntryID.UNRECEIVED_ENTRY;
+				List<Map.Entry<String, List<StreamEntry>>> streams = jedis.xreadGroup(this.group, this.consumer,
+						XReadGroupParams.xReadGroupParams().count(BATCH_SIZE), Collections.singletonMap(this.key, from));
+				List<StreamEntry> entries = streams == null || streams.isEmpty() ? Collections.emptyList() : streams.get(0).getValue();
+
+				if (entries.isEmpty()) {
+					if (this.readPending) {
+						this.readPending = false;
+						continue;
+					}
+					break;
+				}
+				if (!handle(jedis, entries)) {
+					this.readPending = true;
+					break;
+				}
+				if (entries.size() < BATCH_SIZE && !this.readPending) {
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			this.readPending = true;
+			this.plugin.getLogger().warning("Unable to read transactions from " + this.key + " as " +
+					this.group + "/" + this.consumer);
+			e.printStackTrace();
+		} finally {
+			this.running.set(false);
+		}
+	}
+
+	/**
+	 * Passes a batch to the handler and acknowledges it.
+	 *
+	 * @return false if the handler failed, leaving the batch pending
+	 */
+	private boolean handle(Jedis jedis, List<StreamEntry> entries) {
+		List<TransactionRecord> records = new ArrayList<>(entries.size());
+		StreamEntryID[] ids = new StreamEntryID[entries.size()];
+		for (int i = 0; i < entries.size(); i++) {
+			StreamEntry entry = entries.get(i);
+			ids[i] = entry.getID();
+			if (entry.getFields() == null) {
+				// a pending entry which was trimmed from the stream before it was handled
+				this.plugin.getLogger().warning("Transaction " + entry.getID() + " was trimmed from " + this.key +
+						" before " + this.group + " handled it");
+				continue;
+			}
+			try {
+				records.add(RedisTransactionLog.decode(entry.getFields()));
+			} catch (IllegalArgumentException e) {
+				// acknowledged with the batch, it would never decode on a retry either
+				this.plugin.getLogger().warning("Skipping malformed entry " + entry.getID() + " in " + this.key + ": " + e.getMessage());
+			}
+		}
+
+		if (!records.isEmpty()) {
+			try {
+				this.handler.handle(records);
+			} catch (Exception e) {
+				this.plugin.getLogger().warning("Error handling " + records.size() + " transaction(s) from " +
+						this.key + ", they will be retried");
+				e.printStackTrace();
+				return false;
+			}
+		}
+		jedis.xack(this.key, this.group, ids);
+		return true;
+	}
+
+	/**
+	 * Handles a batch of transactions, in the order they were published.
+	 */
+	@FunctionalInterface
+	public interface Handler {
+
+		/**
+		 * Handles a batch. Called from an I/O thread, so may block.
+		 *
+		 * @param records the transactions
+		 * @throws Exception to leave the batch unacknowledged, and have it
+		 *                   handed over again on the next poll
+		 */
+		void handle(List<TransactionRecord> records) throws Exception;
+
+	}
+
+}
@@ -0,0 +1,207 @@
+package cn.watchdog.troneconomy.transaction;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Rejects replayed transaction ids within a rolling time window.
+ *
+ * <p>Every economy mutation carries a client supplied transaction id. Ids are
+ * first tested against two rotating bloom filter generations (the current and
+ * the previous window), which answers "definitely new" for the vast majority
+ * of calls without touching storage. A positive answer is then confirmed
+ * against a fixed size ring of the most recently accepted ids, so bloom filter
+ * false positives never cause a legitimate transaction to be rejected.</p>
+ *
+ * <p>Ids are hashed to one of a fixed number of independent stripes, each
+ * with its own filters, ring and lock, so concurrent transactions rarely
+ * contend with each other.</p>
+ *
+ * <p>Ids are remembered for at least one and at most two windows, and the
+ * rings are sized to hold two windows' worth of transactions. If a burst
+ * evicts ids from a ring while they are still within the window, a bloom
+ * filter hit which the ring cannot confirm is treated as a replay, since
+ * rejecting a transaction is safer than applying it twice. Callers must not
+ * retry a transaction after the window has elapsed.</p>
+ */
+public class TransactionDeduplicator {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private static final int STRIPE_BITS = 4;
+
+	private final Stripe[] stripes;
+
+	public TransactionDeduplicator(long window, TimeUnit unit, int expectedPerWindow) {
+		this(window, unit, expectedPerWindow, System::nanoTime);
+	}
+
+	TransactionDeduplicator(long window, TimeUnit unit, int expectedPerWindow, LongSupplier clock) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		if (expectedPerWindow <= 0) {
+			throw new IllegalArgumentException("expectedPerWindow must be positive");
+		}
+		long windowNanos = unit.toNanos(window);
+		int count = 1 << STRIPE_BITS;
+		// a little headroom, ids never spread perfectly evenly
+		int expectedPerStripe = (int) Math.min(Integer.MAX_VALUE / 32, (expectedPerWindow * 5L / 4) / count + 1);
+
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			this.stripes[i] = new Stripe(windowNanos, expectedPerStripe, clock);
+		}
+	}
+
+	/**
+	 * Records the given transaction id.
+	 *
+	 * @param transactionId the client supplied transaction id
+	 * @return true if the id has not been seen within the window, false if it is a replay
+	 */
+	public boolean tryAccept(UUID transactionId) {
+		long most = transactionId.getMostSignificantBits();
+		long least = transactionId.getLeastSignificantBits();
+		long h1 = mix(most ^ least);
+		long h2 = mix(least + GOLDEN_GAMMA) | 1;
+
+		// the top bits are never used to index a filter
+		Stripe stripe = this.stripes[(int) (h1 >>> (64 - STRIPE_BITS))];
+		return stripe.tryAccept(most, least, h1, h2);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * The filters and ring for one share of the ids.
+	 */
+	private static final class Stripe {
+		private final long windowNanos;
+		private final LongSupplier clock;
+
+		private final int hashFunctions;
+		private final int bitMask;
+		private long[] current;
+		private long[] previous;
+		private long currentWindowStart;
+
+		private final long[] ringMost;
+		private final long[] ringLeast;
+		private final long[] ringTime;
+		private int ringCursor = 0;
+		private int ringSize = 0;
+		// the time the most recently evicted id was accepted
+		private long lastEvicted;
+		private boolean evicted = false;
+
+		Stripe(long windowNanos, int expectedPerWindow, LongSupplier clock) {
+			this.windowNanos = windowNanos;
+			this.clock = clock;
+
+			// ~16 bits per element with 8 hash functions gives a false positive rate well below 0.1%
+			int bits = Integer.highestOneBit(Math.max(64, expectedPerWindow) * 16 - 1) << 1;
+			this.hashFunctions = 8;
+			this.bitMask = bits - 1;
+			this.current = new long[bits >>> 6];
+			this.previous = new long[bits >>> 6];
+			this.currentWindowStart = clock.getAsLong();
+
+			// ids stay in the filters for up to two windows
+			this.ringMost = new long[expectedPerWindow * 2];
+			this.ringLeast = new long[expectedPerWindow * 2];
+			this.ringTime = new long[expectedPerWindow * 2];
+		}
+
+		synchronized boolean tryAccept(long most, long least, long h1, long h2) {
+			long now = this.clock.getAsLong();
+			rotate(now);
+
+			if (contains(this.current, h1, h2) || contains(this.previous, h1, h2)) {
+				if (ringContains(most, least, now)) {
+					return false;
+				}
+			}
+
+			add(this.current, h1, h2);
+			ringAdd(most, least, now);
+			return true;
+		}
+
+		private void rotate(long now) {
+			long elapsed = now - this.currentWindowStart;
+			if (elapsed < this.windowNanos) {
+				return;
+			}
+
+			long[] recycled = this.previous;
+			Arrays.fill(recycled, 0L);
+			if (elapsed >= this.windowNanos * 2) {
+				// idle for more than two windows, nothing is worth remembering
+				Arrays.fill(this.current, 0L);
+			}
+			this.previous = this.current;
+			this.current = recycled;
+			this.currentWindowStart = now;
+		}
+
+		private boolean contains(long[] bits, long h1, long h2) {
+			long hash = h1;
+			for (int i = 0; i < this.hashFunctions; i++) {
+				int index = (int) (hash & this.bitMask);
+				if ((bits[index >>> 6] & (1L << index)) == 0) {
+					return false;
+				}
+				hash += h2;
+			}
+			return true;
+		}
+
+		private void add(long[] bits, long h1, long h2) {
+			long hash = h1;
+			for (int i = 0; i < this.hashFunctions; i++) {
+				int index = (int) (hash & this.bitMask);
+				bits[index >>> 6] |= 1L << index;
+				hash += h2;
+			}
+		}
+
+		private boolean ringContains(long most, long least, long now) {
+			// only reached on a bloom filter hit, i.e. for replays and the rare false positive
+			long horizon = now - this.windowNanos * 2;
+			int index = this.ringCursor;
+			for (int i = 0; i < this.ringSize; i++) {
+				index = (index == 0 ? this.ringMost.length : index) - 1;
+				if (this.ringTime[index] - horizon < 0) {
+					// everything older than this is outside the window
+					return false;
+				}
+				if (this.ringMost[index] == most && this.ringLeast[index] == least) {
+					return true;
+				}
+			}
+			// the ring no longer holds everything the filters remember, so the id may have been evicted
+			return this.evicted && this.lastEvicted - horizon >= 0;
+		}
+
+		private void ringAdd(long most, long least, long now) {
+			int index = this.ringCursor;
+			if (this.ringSize == this.ringMost.length) {
+				this.lastEvicted = this.ringTime[index];
+				this.evicted = true;
+			}
+			this.ringMost[index] = most;
+			this.ringLeast[index] = least;
+			this.ringTime[index] = now;
+			this.ringCursor = index + 1 == this.ringMost.length ? 0 : index + 1;
+			if (this.ringSize < this.ringMost.length) {
+				this.ringSize++;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package cn.watchdog.troneconomy.transaction;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A transaction which has been applied by the ledger.
+ */
+public final class TransactionRecord {
+	private final UUID transactionId;
+	private final Type type;
+	private final UUID source;
+	private final UUID target;
+	private final long amount;
+	private final long timestamp;
+
+	/**
+	 * Creates a record.
+	 *
+	 * @param transactionId the transaction id
+	 * @param type          the type
+	 * @param source        the account debited, or null for a deposit
+	 * @param target        the account credited, or null for a withdrawal
+	 * @param amount        the amount, in minor units
+	 * @param timestamp     when the transaction was applied, in epoch millis
+	 */
+	public TransactionRecord(UUID transactionId, Type type, UUID source, UUID target, long amount, long timestamp) {
+		this.transactionId = Objects.requireNonNull(transactionId, "transactionId");
+		this.type = Objects.requireNonNull(type, "type");
+		this.source = source;
+		this.target = target;
+		this.amount = amount;
+		this.timestamp = timestamp;
+	}
+
+	public UUID getTransactionId() {
+		return this.transactionId;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	public UUID getSource() {
+		return this.source;
+	}
+
+	public UUID getTarget() {
+		return this.target;
+	}
+
+	public long getAmount() {
+		return this.amount;
+	}
+
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof TransactionRecord)) return false;
+		TransactionRecord that = (TransactionRecord) o;
+		return this.amount == that.amount && this.timestamp == that.timestamp &&
+				this.transactionId.equals(that.transactionId) && this.type == that.type &&
+				Objects.equals(this.source, that.source) && Objects.equals(this.target, that.target);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.transactionId, this.type, this.source, this.target, this.amount, this.timestamp);
+	}
+
+	@Override
+	public String toString() {
+		return "TransactionRecord(transactionId=" + this.transactionId + ", type=" + this.type + ", source=" + this.source +
+				", target=" + this.target + ", amount=" + this.amount + ", timestamp=" + this.timestamp + ")";
+	}
+
+	public enum Type {
+		DEPOSIT, WITHDRAW, TRANSFER
+	}
+
+}
@@ -0,0 +1,23 @@
+package cn.watchdog.troneconomy.transaction;
+
+/**
+ * The outcome of an economy mutation.
+ */
+public enum TransactionResult {
+
+	/**
+	 * The mutation was applied.
+	 */
+	SUCCESS,
+
+	/**
+	 * The account did not hold enough money, nothing was changed.
+	 */
+	INSUFFICIENT_FUNDS,
+
+	/**
+	 * The transaction id has already been used, nothing was changed.
+	 */
+	DUPLICATE
+
+}
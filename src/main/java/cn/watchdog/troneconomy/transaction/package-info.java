@@ -0,0 +1,4 @@
+/**
+ * 经济交易相关的包。
+ */
+package cn.watchdog.troneconomy.transaction;
@@ -0,0 +1,254 @@
+package cn.watchdog.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * 压缩前缀树。
+ *
+ * <p>Chains of nodes with a single child are collapsed into one edge label,
+ * and children are held in arrays sorted by their first character, so the
+ * tree stays compact with hundreds of thousands of short keys. Keys are
+ * visited in lexicographic order.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @param <V> the value type
+ */
+public final class RadixTree<V> {
+	private static final char[] NO_KEYS = new char[0];
+
+	private final Node<V> root = new Node<>("", null);
+	private int size = 0;
+
+	public int size() {
+		return this.size;
+	}
+
+	public V get(String key) {
+		Node<V> node = this.root;
+		int i = 0;
+		while (i < key.length()) {
+			int index = node.indexOf(key.charAt(i));
+			if (index < 0) {
+				return null;
+			}
+			node = node.children[index];
+			if (!key.startsWith(node.label, i)) {
+				return null;
+			}
+			i += node.label.length();
+		}
+		return node.value;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key   the key
+	 * @param value the value
+	 * @return the previous value, or null
+	 */
+	public V put(String key, V value) {
+		Objects.requireNonNull(value, "value");
+		Node<V> node = this.root;
+		int i = 0;
+		while (i < key.length()) {
+			int index = node.indexOf(key.charAt(i));
+			if (index < 0) {
+				node.addChild(new Node<>(key.substring(i), value));
+				this.size++;
+				return null;
+			}
+
+			Node<V> child = node.children[index];
+			int common = commonPrefix(child.label, key, i);
+			if (common < child.label.length()) {
+				// split the edge where the keys diverge
+				Node<V> split = new Node<>(child.label.substring(0, common), null);
+				child.label = child.label.substring(common);
+				split.addChild(child);
+				node.children[index] = split;
+				child = split;
+			}
+			node = child;
+			i += common;
+		}
+
+		V previous = node.value;
+		node.value = value;
+		if (previous == null) {
+			this.size++;
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key the key
+	 * @return the removed value, or null
+	 */
+	public V remove(String key) {
+		Node<V> parent = null;
+		Node<V> node = this.root;
+		int i = 0;
+		while (i < key.length()) {
+			int index = node.indexOf(key.charAt(i));
+			if (index < 0) {
+				return null;
+			}
+			parent = node;
+			node = node.children[index];
+			if (!key.startsWith(node.label, i)) {
+				return null;
+			}
+			i += node.label.length();
+		}
+
+		V previous = node.value;
+		if (previous == null) {
+			return null;
+		}
+		node.value = null;
+		this.size--;
+
+		if (parent == null) {
+			return previous;
+		}
+		if (node.children.length == 0) {
+			parent.removeChild(node.label.charAt(0));
+			// the parent may now be a redundant link in a chain
+			if (parent != this.root && parent.value == null && parent.children.length == 1) {
+				parent.mergeWithChild();
+			}
+		} else if (node.children.length == 1) {
+			node.mergeWithChild();
+		}
+		return previous;
+	}
+
+	/**
+	 * Visits the keys starting with a prefix, in lexicographic order.
+	 *
+	 * @param prefix  the prefix
+	 * @param limit   the maximum number of keys to visit
+	 * @param visitor the visitor
+	 * @return the number of keys visited
+	 */
+	public int forEachWithPrefix(String prefix, int limit, BiConsumer<String, V> visitor) {
+		Node<V> node = this.root;
+		StringBuilder key = new StringBuilder(prefix.length() + 16);
+		int i = 0;
+		while (i < prefix.length()) {
+			int index = node.indexOf(prefix.charAt(i));
+			if (index < 0) {
+				return 0;
+			}
+			node = node.children[index];
+			int common = commonPrefix(node.label, prefix, i);
+			if (common < node.label.length() && i + common < prefix.length()) {
+				// diverged in the middle of the edge
+				return 0;
+			}
+			key.append(node.label);
+			i += common;
+		}
+		return visit(node, key, limit, visitor, 0);
+	}
+
+	private int visit(Node<V> node, StringBuilder key, int limit, BiConsumer<String, V> visitor, int visited) {
+		if (visited >= limit) {
+			return visited;
+		}
+		if (node.value != null) {
+			visitor.accept(key.toString(), node.value);
+			visited++;
+		}
+		for (Node<V> child : node.children) {
+			if (visited >= limit) {
+				break;
+			}
+			int length = key.length();
+			key.append(child.label);
+			visited = visit(child, key, limit, visitor, visited);
+			key.setLength(length);
+		}
+		return visited;
+	}
+
+	private static int commonPrefix(String label, String key, int offset) {
+		int max = Math.min(label.length(), key.length() - offset);
+		int i = 0;
+		while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private static final class Node<V> {
+		private String label;
+		private V value;
+		private char[] keys = NO_KEYS;
+		@SuppressWarnings("unchecked")
+		private Node<V>[] children = new Node[0];
+
+		Node(String label, V value) {
+			this.label = label;
+			this.value = value;
+		}
+
+		int indexOf(char c) {
+			if (this.keys.length < 8) {
+				for (int i = 0; i < this.keys.length; i++) {
+					if (this.keys[i] == c) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			int index = Arrays.binarySearch(this.keys, c);
+			return index < 0 ? -1 : index;
+		}
+
+		void addChild(Node<V> child) {
+			char c = child.label.charAt(0);
+			int insert = -(Arrays.binarySearch(this.keys, c) + 1);
+			char[] keys = new char[this.keys.length + 1];
+			Node<V>[] children = Arrays.copyOf(this.children, this.children.length + 1);
+			System.arraycopy(this.keys, 0, keys, 0, insert);
+			System.arraycopy(this.keys, insert, keys, insert + 1, this.keys.length - insert);
+			System.arraycopy(this.children, insert, children, insert + 1, this.children.length - insert);
+			keys[insert] = c;
+			children[insert] = child;
+			this.keys = keys;
+			this.children = children;
+		}
+
+		void removeChild(char c) {
+			int index = indexOf(c);
+			char[] keys = new char[this.keys.length - 1];
+			@SuppressWarnings("unchecked")
+			Node<V>[] children = new Node[this.children.length - 1];
+			System.arraycopy(this.keys, 0, keys, 0, index);
+			System.arraycopy(this.keys, index + 1, keys, index, keys.length - index);
+			System.arraycopy(this.children, 0, children, 0, index);
+			System.arraycopy(this.children, index + 1, children, index, children.length - index);
+			this.keys = keys;
+			this.children = children;
+		}
+
+		/**
+		 * Absorbs the only child of a node without a value.
+		 */
+		void mergeWithChild() {
+			Node<V> child = this.children[0];
+			this.label = this.label + child.label;
+			this.value = child.value;
+			this.keys = child.keys;
+			this.children = child.children;
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package cn.watchdog.troneconomy.storage.harness;
+
+import cn.watchdog.troneconomy.storage.implementation.PartialWriteException;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.implementation.decorator.ForwardingStorage;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Interrupts a write part way when armed, as a crash or lost connection
+ * would: the first half of the batch is applied, and the rest is reported
+ * as unapplied through a {@link PartialWriteException}.
+ */
+class InterruptingStorage extends ForwardingStorage {
+	private final AtomicBoolean armed = new AtomicBoolean(false);
+	private int interruptions = 0;
+
+	InterruptingStorage(StorageImplementation delegate) {
+		super(delegate);
+	}
+
+	/**
+	 * Interrupts the next write.
+	 */
+	void interruptNext() {
+		this.armed.set(true);
+	}
+
+	int getInterruptions() {
+		return this.interruptions;
+	}
+
+	@Override
+	public List<BalanceChange> applyChanges(Collection<BalanceChange> changes) throws Exception {
+		if (!this.armed.compareAndSet(true, false) || changes.size() < 2) {
+			return this.delegate.applyChanges(changes);
+		}
+		this.interruptions++;
+
+		List<BalanceChange> batch = new ArrayList<>(changes);
+		List<BalanceChange> applied = batch.subList(0, batch.size() / 2);
+		List<BalanceChange> unapplied = new ArrayList<>(batch.subList(batch.size() / 2, batch.size()));
+		List<BalanceChange> rejected = this.delegate.applyChanges(applied);
+		throw new PartialWriteException("Interrupted after " + applied.size() + " of " + batch.size() + " changes",
+				unapplied, rejected, null);
+	}
+
+}
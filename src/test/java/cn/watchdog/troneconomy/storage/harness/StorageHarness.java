@@ -0,0 +1,391 @@
+package cn.watchdog.troneconomy.storage.harness;
+
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.implementation.StorageImplementation;
+import cn.watchdog.troneconomy.storage.implementation.custom.CustomStorageProviders;
+import cn.watchdog.troneconomy.storage.implementation.decorator.RetryingStorage;
+import cn.watchdog.troneconomy.storage.implementation.decorator.WriteBehindStorage;
+import cn.watchdog.troneconomy.storage.misc.BalanceChange;
+import cn.watchdog.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs the same correctness and load suite against any
+ * {@link StorageImplementation}.
+ *
+ * <p>The supplier must open a new instance over the same underlying data each
+ * time it is called, so durability can be checked. Use a scratch database:
+ * the suite creates accounts with random ids and never deletes them. The
+ * file based SQL types (SQLite, H2) can stand in for MySQL and PostgreSQL.</p>
+ */
+public class StorageHarness {
+	private final String name;
+	private final Supplier<? extends StorageImplementation> factory;
+	private final boolean durable;
+
+	/**
+	 * Creates a harness.
+	 *
+	 * @param name    the name used in the report
+	 * @param factory opens a new storage instance
+	 * @param durable if data is expected to survive a restart
+	 */
+	public StorageHarness(String name, Supplier<? extends StorageImplementation> factory, boolean durable) {
+		this.name = name;
+		this.factory = factory;
+		this.durable = durable;
+	}
+
+	/**
+	 * Creates a harness for a storage registered with {@link CustomStorageProviders},
+	 * wrapped in a chain of registered decorators.
+	 *
+	 * <p>Decorators which acknowledge writes before applying them, such as
+	 * write-behind and admission control, cannot report rejected changes, so
+	 * chains including them fail the rejection check.</p>
+	 *
+	 * @param plugin     the plugin
+	 * @param provider   the provider name
+	 * @param decorators the decorator names, innermost first
+	 * @param durable    if data is expected to survive a restart
+	 * @return the harness
+	 */
+	public static StorageHarness forProvider(TronEconomy plugin, String provider, List<String> decorators, boolean durable) {
+		String name = decorators.isEmpty() ? provider : provider + " " + decorators;
+		return new StorageHarness(name, () -> CustomStorageProviders.provide(plugin, provider, decorators), durable);
+	}
+
+	/**
+	 * Runs the full suite.
+	 *
+	 * @param threads  the number of concurrent threads
+	 * @param duration how long to run the throughput test for
+	 * @param unit     the unit of duration
+	 * @return the results
+	 * @throws Exception if the storage could not be opened
+	 */
+	public List<Result> run(int threads, long duration, TimeUnit unit) throws Exception {
+		List<Result> results = new ArrayList<>();
+		StorageImplementation storage = open();
+		try {
+			results.add(checkConservation(storage, 64, threads, 2_000));
+			results.add(checkRejection(storage));
+			results.add(measureThroughput(storage, threads, duration, unit));
+		} finally {
+			storage.shutdown();
+		}
+		results.add(checkReplay());
+		if (this.durable) {
+			results.add(checkDurability());
+		}
+		return results;
+	}
+
+	private StorageImplementation open() throws Exception {
+		StorageImplementation storage = this.factory.get();
+		storage.init();
+		return storage;
+	}
+
+	/**
+	 * Performs concurrent transfers between a small set of accounts, then
+	 * checks that the total is unchanged.
+	 *
+	 * <p>The accounts are funded so that no transfer can overdraw one, so
+	 * every transfer must be applied whole. Storage applies the changes of
+	 * each account separately, so a rejected change would mean half of a
+	 * transfer was applied.</p>
+	 */
+	private Result checkConservation(StorageImplementation storage, int accounts, int threads, int transfersPerThread) throws Exception {
+		final int maxAmount = 1_000;
+		final long initial = (long) maxAmount * threads * transfersPerThread;
+		UUID[] ids = randomIds(accounts);
+		List<BalanceChange> seed = new ArrayList<>(accounts);
+		for (UUID id : ids) {
+			seed.add(new BalanceChange(id, initial));
+		}
+		storage.applyChanges(seed);
+
+		LongAdder halfApplied = new LongAdder();
+		LongAdder failures = new LongAdder();
+		runConcurrently(threads, () -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < transfersPerThread; i++) {
+				UUID from = ids[random.nextInt(ids.length)];
+				UUID to = ids[random.nextInt(ids.length)];
+				if (from.equals(to)) {
+					continue;
+				}
+				long amount = 1 + random.nextInt(maxAmount);
+				try {
+					if (!storage.applyChanges(Arrays.asList(new BalanceChange(from, -amount), new BalanceChange(to, amount))).isEmpty()) {
+						halfApplied.increment();
+					}
+				} catch (Exception e) {
+					// any part of a failed batch may have been applied, so the total cannot be checked
+					failures.increment();
+				}
+			}
+		});
+
+		long total = 0;
+		List<UUID> negative = new ArrayList<>();
+		for (UUID id : ids) {
+			long balance = storage.loadBalance(id).orElse(0L);
+			if (balance < 0) {
+				negative.add(id);
+			}
+			total += balance;
+		}
+
+		long expected = initial * accounts;
+		String name = "conservation";
+		if (failures.sum() != 0) {
+			return new Result(name, false, failures.sum() + " batches failed");
+		}
+		if (halfApplied.sum() != 0) {
+			return new Result(name, false, halfApplied.sum() + " transfers were only partly applied");
+		}
+		if (!negative.isEmpty()) {
+			return new Result(name, false, negative.size() + " accounts have a negative balance");
+		}
+		if (total != expected) {
+			return new Result(name, false, "expected a total of " + expected + " but found " + total);
+		}
+		return new Result(name, true, threads * transfersPerThread + " transfers, total " + total);
+	}
+
+	/**
+	 * Checks that changes which would leave a balance negative or too large
+	 * are returned, and leave the balance untouched.
+	 */
+	private Result checkRejection(StorageImplementation storage) throws Exception {
+		UUID id = UUID.randomUUID();
+		storage.applyChanges(Collections.singletonList(new BalanceChange(id, 100L)));
+
+		String name = "rejection";
+		List<BalanceChange> overdraw = Collections.singletonList(new BalanceChange(id, -101L));
+		if (!storage.applyChanges(overdraw).equals(overdraw)) {
+			return new Result(name, false, "an overdraft was not rejected");
+		}
+		List<BalanceChange> overflow = Collections.singletonList(new BalanceChange(id, Long.MAX_VALUE));
+		if (!storage.applyChanges(overflow).equals(overflow)) {
+			return new Result(name, false, "an overflow was not rejected");
+		}
+		OptionalLong balance = storage.loadBalance(id);
+		if (!balance.isPresent() || balance.getAsLong() != 100L) {
+			return new Result(name, false, "expected a balance of 100 but found " + balance);
+		}
+		return new Result(name, true, "overdraft and overflow rejected");
+	}
+
+	/**
+	 * Writes a known set of balances, then abandons that storage instance
+	 * without shutting it down and checks the balances from a new one.
+	 *
+	 * <p>This does not kill the process, so it cannot catch writes lost by
+	 * the operating system. It shows that acknowledged writes do not depend
+	 * on a clean shutdown, such as being flushed on close.</p>
+	 */
+	private Result checkDurability() throws Exception {
+		UUID[] ids = randomIds(32);
+		List<BalanceChange> changes = new ArrayList<>();
+		for (int i = 0; i < ids.length; i++) {
+			changes.add(new BalanceChange(ids[i], 1_000L + i));
+		}
+
+		String name = "durability";
+		StorageImplementation abandoned = open();
+		try {
+			abandoned.applyChanges(changes);
+
+			StorageImplementation storage = open();
+			try {
+				for (int i = 0; i < ids.length; i++) {
+					OptionalLong balance = storage.loadBalance(ids[i]);
+					if (!balance.isPresent() || balance.getAsLong() != 1_000L + i) {
+						return new Result(name, false, "account " + ids[i] + " has " + balance + " in a new instance");
+					}
+				}
+			} finally {
+				storage.shutdown();
+			}
+		} finally {
+			abandoned.shutdown();
+		}
+		return new Result(name, true, ids.length + " accounts visible without a clean shutdown");
+	}
+
+	/**
+	 * Interrupts writes part way and checks that replaying what was left
+	 * unapplied gives exact balances, neither lost nor applied twice, then
+	 * abandons the storage instance and checks the balances from a new one
+	 * if the storage is durable.
+	 *
+	 * <p>One write is replayed at once by {@link RetryingStorage}, and one
+	 * queued flush is replayed by the next flush of
+	 * {@link WriteBehindStorage}. Changes still queued in memory when the
+	 * process dies are not replayed by anything, so they are not checked.</p>
+	 */
+	private Result checkReplay() throws Exception {
+		UUID[] ids = randomIds(32);
+		List<BalanceChange> seed = new ArrayList<>();
+		List<BalanceChange> deposits = new ArrayList<>();
+		for (int i = 0; i < ids.length; i++) {
+			seed.add(new BalanceChange(ids[i], 1_000L + i));
+			deposits.add(new BalanceChange(ids[i], i));
+		}
+
+		String name = "replay";
+		StorageImplementation interrupted = open();
+		try {
+			InterruptingStorage interrupting = new InterruptingStorage(interrupted);
+			interrupting.interruptNext();
+			if (!new RetryingStorage(interrupting, 2, 1).applyChanges(seed).isEmpty()) {
+				return new Result(name, false, "a replayed write was rejected");
+			}
+
+			WriteBehindStorage writeBehind = new WriteBehindStorage(interrupting);
+			writeBehind.applyChanges(deposits);
+			interrupting.interruptNext();
+			writeBehind.flush();
+			if (writeBehind.getPendingAccounts() == 0) {
+				return new Result(name, false, "the unapplied part of an interrupted flush was not queued again");
+			}
+			writeBehind.flush();
+			if (interrupting.getInterruptions() != 2) {
+				return new Result(name, false, "expected 2 interrupted writes but found " + interrupting.getInterruptions());
+			}
+
+			if (!this.durable) {
+				return checkBalances(name, interrupted, ids);
+			}
+			StorageImplementation storage = open();
+			try {
+				return checkBalances(name, storage, ids);
+			} finally {
+				storage.shutdown();
+			}
+		} finally {
+			interrupted.shutdown();
+		}
+	}
+
+	private static Result checkBalances(String name, StorageImplementation storage, UUID[] ids) throws Exception {
+		for (int i = 0; i < ids.length; i++) {
+			long expected = 1_000L + 2 * i;
+			OptionalLong balance = storage.loadBalance(ids[i]);
+			if (!balance.isPresent() || balance.getAsLong() != expected) {
+				return new Result(name, false, "account " + ids[i] + " has " + balance + " instead of " + expected);
+			}
+		}
+		return new Result(name, true, "2 interrupted writes replayed exactly over " + ids.length + " accounts");
+	}
+
+	/**
+	 * Measures sustained single change write throughput and latency.
+	 */
+	private Result measureThroughput(StorageImplementation storage, int threads, long duration, TimeUnit unit) throws Exception {
+		UUID[] ids = randomIds(1_024);
+		LatencyHistogram histogram = new LatencyHistogram();
+		LongAdder failures = new LongAdder();
+		long deadline = System.nanoTime() + unit.toNanos(duration);
+
+		long start = System.nanoTime();
+		runConcurrently(threads, () -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			while (System.nanoTime() - deadline < 0) {
+				BalanceChange change = new BalanceChange(ids[random.nextInt(ids.length)], 1);
+				long opStart = System.nanoTime();
+				try {
+					storage.applyChanges(Collections.singletonList(change));
+					histogram.record(System.nanoTime() - opStart);
+				} catch (Exception e) {
+					failures.increment();
+				}
+			}
+		});
+		double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+
+		String detail = String.format("%.0f ops/sec with %d threads, %s, %d failures",
+				histogram.getCount() / seconds, threads, histogram.summary(), failures.sum());
+		return new Result("throughput", true, detail);
+	}
+
+	private static UUID[] randomIds(int count) {
+		UUID[] ids = new UUID[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = UUID.randomUUID();
+		}
+		return ids;
+	}
+
+	private static void runConcurrently(int threads, Runnable task) throws Exception {
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					error.compareAndSet(null, e);
+				}
+			}, "troneconomy-harness-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (error.get() != null) {
+			throw new Exception("Harness worker failed", error.get());
+		}
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * The outcome of a single check.
+	 */
+	public static final class Result {
+		private final String check;
+		private final boolean passed;
+		private final String detail;
+
+		Result(String check, boolean passed, String detail) {
+			this.check = check;
+			this.passed = passed;
+			this.detail = detail;
+		}
+
+		public String getCheck() {
+			return this.check;
+		}
+
+		public boolean isPassed() {
+			return this.passed;
+		}
+
+		public String getDetail() {
+			return this.detail;
+		}
+
+		@Override
+		public String toString() {
+			return this.check + ": " + (this.passed ? "PASS" : "FAIL") + " - " + this.detail;
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package cn.watchdog.troneconomy.storage.harness;
+
+import cn.watchdog.BukkitSchedulerAdapter;
+import cn.watchdog.dependencies.DependencyManager;
+import cn.watchdog.troneconomy.TronEconomy;
+import cn.watchdog.troneconomy.storage.StorageType;
+import cn.watchdog.troneconomy.storage.implementation.memory.MemoryStorage;
+import cn.watchdog.troneconomy.storage.implementation.sql.SqlStorage;
+import cn.watchdog.troneconomy.storage.implementation.sql.connection.FlatfileConnectionFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StorageHarnessTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void memory() throws Exception {
+		TronEconomy plugin = mockPlugin();
+		assertPassed(new StorageHarness("memory", () -> new MemoryStorage(plugin), false));
+	}
+
+	@Test
+	public void provider() throws Exception {
+		// the decorators which apply writes before acknowledging them
+		assertPassed(StorageHarness.forProvider(mockPlugin(), "memory",
+				Arrays.asList("retry", "circuit-breaker", "caching", "metrics"), false));
+	}
+
+	@Test
+	public void sqlite() throws Exception {
+		TronEconomy plugin = mockPlugin();
+		Path file = this.folder.getRoot().toPath().resolve("economy.db");
+		assertPassed(new StorageHarness("sqlite", () ->
+				new SqlStorage(plugin, new FlatfileConnectionFactory(StorageType.SQLITE, file, "tron_"), "default"), true));
+	}
+
+	private static void assertPassed(StorageHarness harness) throws Exception {
+		List<StorageHarness.Result> results = harness.run(4, 1, TimeUnit.SECONDS);
+		for (StorageHarness.Result result : results) {
+			assertTrue(harness.getName() + " " + result, result.isPassed());
+		}
+	}
+
+	/**
+	 * Mocks the parts of the plugin used by SQL storage: the driver is loaded
+	 * from the test classpath, and background migrations run inline.
+	 */
+	private static TronEconomy mockPlugin() {
+		DependencyManager dependencyManager = mock(DependencyManager.class);
+		when(dependencyManager.obtainClassLoaderWith(any())).thenReturn(StorageHarnessTest.class.getClassLoader());
+		BukkitSchedulerAdapter scheduler = mock(BukkitSchedulerAdapter.class);
+		when(scheduler.io()).thenReturn(Runnable::run);
+
+		TronEconomy plugin = mock(TronEconomy.class);
+		when(plugin.getLogger()).thenReturn(Logger.getLogger("TronEconomy"));
+		when(plugin.getDependencyManager()).thenReturn(dependencyManager);
+		when(plugin.getScheduler()).thenReturn(scheduler);
+		return plugin;
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * 存储一致性与压力测试工具的包。
+ */
+package cn.watchdog.troneconomy.storage.harness;
@@ -0,0 +1,112 @@
+package cn.watchdog.troneconomy.storage.implementation.sql;
+
+import cn.watchdog.troneconomy.storage.StorageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongUnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the bulk operations through SQLite and compares every balance with
+ * the same arithmetic done in Java.
+ */
+public class BulkOperationTest {
+	private static final long[] BALANCES = {
+			-5, 0, 1, 999, 1_000, 1_001, 9_999, 10_000, 10_001, 1_234_567, 987_654_321_012L,
+			Long.MAX_VALUE / 20_000, Long.MAX_VALUE / 3, Long.MAX_VALUE - 1, Long.MAX_VALUE
+	};
+	private static final BigInteger BASIS_POINTS = BigInteger.valueOf(10_000);
+
+	private Connection connection;
+
+	@Before
+	public void open() throws SQLException {
+		this.connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try (Statement s = this.connection.createStatement()) {
+			s.execute("CREATE TABLE accounts (id INTEGER PRIMARY KEY AUTOINCREMENT, uuid VARCHAR(36) NOT NULL, " +
+					"currency VARCHAR(36) NOT NULL, balance BIGINT NOT NULL, version BIGINT NOT NULL DEFAULT 0)");
+		}
+	}
+
+	@After
+	public void close() throws SQLException {
+		this.connection.close();
+	}
+
+	@Test
+	public void interest() throws SQLException {
+		for (long basisPoints : new long[]{0, 1, 250, 5_000, 10_000, 12_345}) {
+			long limit = Long.MAX_VALUE / (10_000 + basisPoints) * 10_000;
+			check(BulkOperation.interest(basisPoints), balance -> balance > 0 && balance <= limit ?
+					balance + rate(balance, basisPoints) : balance);
+		}
+	}
+
+	@Test
+	public void wealthTax() throws SQLException {
+		for (long basisPoints : new long[]{0, 1, 250, 5_000, 10_000}) {
+			for (long threshold : new long[]{0, 1_000, 1_234_567, Long.MAX_VALUE / 2}) {
+				check(BulkOperation.wealthTax(basisPoints, threshold), balance -> balance > threshold ?
+						balance - rate(balance - threshold, basisPoints) : balance);
+			}
+		}
+	}
+
+	@Test
+	public void seasonReset() throws SQLException {
+		check(BulkOperation.seasonReset(500), balance -> 500);
+	}
+
+	private static long rate(long amount, long basisPoints) {
+		return BigInteger.valueOf(amount).multiply(BigInteger.valueOf(basisPoints)).divide(BASIS_POINTS).longValueExact();
+	}
+
+	private void check(BulkOperation operation, LongUnaryOperator expected) throws SQLException {
+		Map<Long, Long> before = new HashMap<>();
+		try (Statement s = this.connection.createStatement()) {
+			s.execute("DELETE FROM accounts");
+		}
+		try (PreparedStatement ps = this.connection.prepareStatement("INSERT INTO accounts (uuid, currency, balance) VALUES(?, ?, ?)")) {
+			for (int i = 0; i < BALANCES.length; i++) {
+				ps.setString(1, "account-" + i);
+				ps.setString(2, "default");
+				ps.setLong(3, BALANCES[i]);
+				ps.executeUpdate();
+			}
+		}
+		try (PreparedStatement ps = this.connection.prepareStatement("SELECT id, balance FROM accounts")) {
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					before.put(rs.getLong(1), rs.getLong(2));
+				}
+			}
+		}
+
+		try (PreparedStatement ps = this.connection.prepareStatement(operation.createStatement(StorageType.SQLITE).replace("{prefix}", ""))) {
+			operation.bind(ps, "default", Long.MIN_VALUE, Long.MAX_VALUE);
+			ps.executeUpdate();
+		}
+
+		try (PreparedStatement ps = this.connection.prepareStatement("SELECT id, balance FROM accounts")) {
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					long balance = before.get(rs.getLong(1));
+					assertEquals(operation.getName() + " of " + balance, expected.applyAsLong(balance), rs.getLong(2));
+				}
+			}
+		}
+	}
+
+}